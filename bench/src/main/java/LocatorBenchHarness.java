@@ -0,0 +1,108 @@
+// Benchmark locator harness.
+
+import bench.LocatorHarness;
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * CellLocator operations for the benchmarks.
+ */
+public class LocatorBenchHarness implements LocatorHarness
+{
+   // Locator.
+   private CellLocator locator;
+
+   // Discarding coordinate stream.
+   private PrintStream discard = new PrintStream(new OutputStream()
+                                                 {
+                                                    @Override
+                                                    public void write(int b)
+                                                    {
+                                                    }
+
+
+                                                    @Override
+                                                    public void write(byte[] b, int off, int len)
+                                                    {
+                                                    }
+                                                 }
+                                                 );
+
+   @Override
+   public void setImage(BufferedImage image, int radius, int threads)
+   {
+      BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+      copy.getGraphics().drawImage(image, 0, 0, null);
+      locator            = new CellLocator();
+      locator.progress   = null;
+      locator.ITERATIONS = 1;
+      locator.PIXEL_NEIGHBORHOOD_RADIUS = radius;
+      locator.THREADS    = threads;
+      locator.setImage(copy);
+   }
+
+
+   @Override
+   public void initPixels()
+   {
+      locator.initPixels();
+   }
+
+
+   @Override
+   public void iterate()
+   {
+      locator.locateCells();
+   }
+
+
+   @Override
+   public void rebuildTracker()
+   {
+      int count = locator.Particles.count;
+      locator.PixelTracker.assign(locator.Particles, 0, count);
+      locator.PixelTracker.build(count);
+   }
+
+
+   @Override
+   public void finalizeImage()
+   {
+      locator.finalizeImage();
+   }
+
+
+   @Override
+   public void printCoordinates()
+   {
+      locator.printCoordinates(discard);
+   }
+
+
+   @Override
+   public int getParticles()
+   {
+      return(locator.Particles.count);
+   }
+
+
+   @Override
+   public BufferedImage synthetic(int size, double density, long seed)
+   {
+      SyntheticImage synthetic = new SyntheticImage();
+      synthetic.WIDTH      = size;
+      synthetic.HEIGHT     = size;
+      synthetic.OVERLAP    = 1.0;
+      synthetic.SEED       = seed;
+      double meanArea = 0.0;
+      for (int r = synthetic.MIN_RADIUS; r <= synthetic.MAX_RADIUS; r++)
+      {
+         meanArea += Math.PI * r * r / (double)(synthetic.MAX_RADIUS - synthetic.MIN_RADIUS + 1);
+      }
+      synthetic.CELLS      = (int)(density * (double)size * (double)size / meanArea);
+      synthetic.INCLUSIONS = synthetic.CELLS / 4;
+      synthetic.place();
+      return(synthetic.toImage());
+   }
+}
@@ -0,0 +1,66 @@
+// Benchmark images.
+
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+/**
+ * Images for the benchmarks: the bundled images, found relative to the
+ * working directory or the bench.root system property, and synthetic
+ * images (SyntheticImage) of blue cells of a given area density.
+ */
+public class BenchImages
+{
+   // Bundled images.
+   public static final String[][] BUNDLED =
+   {
+      { "composite", "res/images/Composite (RGB).png" },
+      { "test0", "work/test0.png" },
+      { "test1", "work/test1.png" },
+      { "test2", "work/test2.png" }
+   };
+
+   // Synthetic image size and seed.
+   public static final int  SYNTHETIC_SIZE = 1024;
+   public static final long SYNTHETIC_SEED = 1L;
+
+   /**
+    * Get an image by name: a bundled image name or synthetic-<density>.
+    */
+   public static BufferedImage get(String name) throws IOException
+   {
+      if (name.startsWith("synthetic-"))
+      {
+         double density = Double.parseDouble(name.substring(10));
+         return(LocatorBenchmark.newHarness().synthetic(SYNTHETIC_SIZE, density, SYNTHETIC_SEED));
+      }
+      for (String[] bundled : BUNDLED)
+      {
+         if (bundled[0].equals(name))
+         {
+            return(ImageIO.read(find(bundled[1])));
+         }
+      }
+      throw new IOException("Unknown benchmark image " + name);
+   }
+
+
+   // Find a bundled file from the project root.
+   private static File find(String path) throws IOException
+   {
+      String[] roots = { System.getProperty("bench.root", "."), ".." };
+
+      for (String root : roots)
+      {
+         File file = new File(root, path);
+         if (file.isFile())
+         {
+            return(file);
+         }
+      }
+      throw new IOException("Cannot find " + path + "; run from the project root or set -Dbench.root");
+   }
+}
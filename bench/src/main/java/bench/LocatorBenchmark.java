@@ -0,0 +1,163 @@
+// Locator benchmarks.
+
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the locator hot paths: noise removal, one particle
+ * iteration, the cell list rebuild and coordinate extraction, over the
+ * bundled and synthetic images.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocatorBenchmark
+{
+   // Create the default package harness.
+   static LocatorHarness newHarness()
+   {
+      try
+      {
+         return((LocatorHarness)Class.forName("LocatorBenchHarness").getDeclaredConstructor().newInstance());
+      }
+      catch (ReflectiveOperationException e) {
+         throw new IllegalStateException("Cannot create the benchmark harness", e);
+      }
+   }
+
+
+   /**
+    * Image, before noise removal.
+    */
+   @State(Scope.Thread)
+   public static class ImageState
+   {
+      @Param({ "composite", "test0", "test1", "test2", "synthetic-0.05", "synthetic-0.3" })
+      public String image;
+
+      @Param({ "1" })
+      public int threads;
+
+      BufferedImage  source;
+      LocatorHarness harness;
+
+      @Setup(Level.Trial)
+      public void load() throws Exception
+      {
+         source  = BenchImages.get(image);
+         harness = newHarness();
+      }
+
+
+      @Setup(Level.Invocation)
+      public void reset()
+      {
+         harness.setImage(source, 10, threads);
+      }
+   }
+
+
+   /**
+    * Particles, after noise removal.
+    */
+   @State(Scope.Thread)
+   public static class ParticleState
+   {
+      @Param({ "composite", "test1", "synthetic-0.05", "synthetic-0.3" })
+      public String image;
+
+      @Param({ "5", "10", "20" })
+      public int radius;
+
+      @Param({ "1" })
+      public int threads;
+
+      BufferedImage  source;
+      LocatorHarness harness;
+
+      @Setup(Level.Trial)
+      public void load() throws Exception
+      {
+         source  = BenchImages.get(image);
+         harness = newHarness();
+      }
+
+
+      // Restart the particles for each measurement iteration, so that
+      // the clustering does not drift far from the initial density.
+      @Setup(Level.Iteration)
+      public void reset()
+      {
+         harness.setImage(source, radius, threads);
+         harness.initPixels();
+      }
+   }
+
+
+   /**
+    * Marked particles, ready for coordinate extraction.
+    */
+   @State(Scope.Thread)
+   public static class MarkedState
+   {
+      @Param({ "composite", "test1", "synthetic-0.05", "synthetic-0.3" })
+      public String image;
+
+      LocatorHarness harness;
+
+      @Setup(Level.Trial)
+      public void load() throws Exception
+      {
+         harness = newHarness();
+         harness.setImage(BenchImages.get(image), 10, 1);
+         harness.initPixels();
+         harness.finalizeImage();
+      }
+   }
+
+
+   @Benchmark
+   public int initPixels(ImageState state)
+   {
+      state.harness.initPixels();
+      return(state.harness.getParticles());
+   }
+
+
+   @Benchmark
+   public void iteration(ParticleState state)
+   {
+      state.harness.iterate();
+   }
+
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.MICROSECONDS)
+   public void rebuildTracker(ParticleState state)
+   {
+      state.harness.rebuildTracker();
+   }
+
+
+   @Benchmark
+   public void printCoordinates(MarkedState state)
+   {
+      state.harness.printCoordinates();
+   }
+}
@@ -0,0 +1,36 @@
+// Benchmark locator harness.
+
+package bench;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * The locator operations under benchmark. The locator classes are in the
+ * default package, which a benchmark cannot import, so they are reached
+ * through this interface, implemented by LocatorBenchHarness in the
+ * default package.
+ */
+public interface LocatorHarness
+{
+   // Set the image, neighborhood radius and threads. The image is copied.
+   public void setImage(BufferedImage image, int radius, int threads);
+
+   // Remove noise and create particles.
+   public void initPixels();
+
+   // Run one particle iteration.
+   public void iterate();
+
+   // Rebuild the particle cell list.
+   public void rebuildTracker();
+
+   // Mark the particles and print the coordinates to a discarding stream.
+   public void finalizeImage();
+   public void printCoordinates();
+
+   // Particle count.
+   public int getParticles();
+
+   // Synthetic square image whose cells cover a fraction of its area.
+   public BufferedImage synthetic(int size, double density, long seed);
+}
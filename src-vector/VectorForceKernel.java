@@ -0,0 +1,85 @@
+// Vector API force kernel.
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Force kernel evaluating lane entries a vector at a time with the
+ * jdk.incubator.vector API, in the preferred float species of the machine.
+ * Entries outside the box are masked out of the sums, and the entries after
+ * the last whole vector are evaluated as in FloatForceKernel.
+ * Needs Java 17 or later run with --add-modules jdk.incubator.vector.
+ */
+public class VectorForceKernel implements ForceKernel
+{
+   // Float vector shape.
+   private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+   @Override
+   public void accumulate(float[] x, float[] y, float[] mass, int from, int to,
+                          float px, float py, float xMin, float xMax, float yMin, float yMax,
+                          float scale, double[] force)
+   {
+      FloatVector sumX  = FloatVector.zero(SPECIES);
+      FloatVector sumY  = FloatVector.zero(SPECIES);
+      int         upper = from + SPECIES.loopBound(to - from);
+      int         k     = from;
+      float       s2    = scale * scale;
+
+      for ( ; k < upper; k += SPECIES.length())
+      {
+         FloatVector       x2  = FloatVector.fromArray(SPECIES, x, k);
+         FloatVector       y2  = FloatVector.fromArray(SPECIES, y, k);
+         VectorMask<Float> box = x2.compare(VectorOperators.GE, xMin)
+                                    .and(x2.compare(VectorOperators.LT, xMax))
+                                    .and(y2.compare(VectorOperators.GE, yMin))
+                                    .and(y2.compare(VectorOperators.LT, yMax));
+         if (!box.anyTrue())
+         {
+            continue;
+         }
+         FloatVector vx = x2.sub(px);
+         FloatVector vy = y2.sub(py);
+         FloatVector d2 = vx.mul(vx).add(vy.mul(vy));
+         FloatVector d  = d2.sqrt();
+         FloatVector s  = FloatVector.broadcast(SPECIES, 1.0f).div(d);
+         s = s.div(d2.mul(s2), d.mul(scale).compare(VectorOperators.GT, 1.0f));
+         if (mass != null)
+         {
+            s = s.mul(FloatVector.fromArray(SPECIES, mass, k));
+         }
+         sumX = sumX.add(vx.mul(s), box);
+         sumY = sumY.add(vy.mul(s), box);
+      }
+      float fx = sumX.reduceLanes(VectorOperators.ADD);
+      float fy = sumY.reduceLanes(VectorOperators.ADD);
+      for ( ; k < to; k++)
+      {
+         float x2 = x[k];
+         float y2 = y[k];
+         if ((x2 < xMin) || (x2 >= xMax) || (y2 < yMin) || (y2 >= yMax))
+         {
+            continue;
+         }
+         float vx = x2 - px;
+         float vy = y2 - py;
+         float d2 = vx * vx + vy * vy;
+         float d  = (float)Math.sqrt(d2);
+         float s  = 1.0f / d;
+         if (d * scale > 1.0f)
+         {
+            s /= d2 * s2;
+         }
+         if (mass != null)
+         {
+            s *= mass[k];
+         }
+         fx += vx * s;
+         fy += vy * s;
+      }
+      force[0] += fx;
+      force[1] += fy;
+   }
+}
@@ -4,7 +4,6 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.RenderingHints;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
@@ -12,9 +11,16 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import javax.imageio.ImageIO;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
@@ -24,8 +30,7 @@ import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
-import javax.vecmath.Vector2d;
-import java.util.ArrayList;
+import javax.swing.Timer;
 
 public class AlzheimersInclusions extends JPanel
 {
@@ -33,35 +38,446 @@ public class AlzheimersInclusions extends JPanel
 
    /**
     * The main routine simply opens a window that shows a panel.
+    * With the -headless option the image is processed without a window
+    * and the program exits when done; -tile also processes it tile by tile.
+    * With the -batch option the file is a directory of images or a list of
+    * image files, processed by -workers concurrent workers. With -output
+    * the coordinates are written to a file (- for standard output) in the
+    * -format format instead of being printed. The run metrics are exposed
+    * as MBeans, and with -metrics a headless run appends a JSON summary
+    * line for each image to a file. With -checkpoint the particle positions
+    * are saved periodically, and -resume continues from the saved ones.
+    * The -kernel option selects the double, float or Vector API float
+    * force kernel. With -server the program instead serves locate requests
+    * on a loopback HTTP port with -workers concurrent workers. With -cache
+    * the results are kept in a directory, bounded by -cachesize megabytes,
+    * and an image already located with the same parameters is not rerun.
+    * With -sweep the image is located for each combination of lists of
+    * iterations, radii and movements, and a table of counts is printed.
+    * With -milestones the coordinates are also written at each of a list
+    * of iterations, running to the last unless the iterations are given.
     */
    public static void main(String[] args)
    {
-      AlzheimersInclusions az = new AlzheimersInclusions();
+      boolean headless          = false;
+      int     threads           = -1;
+      int     cellSize          = -1;
+      int     convergenceWindow = -1;
+      double  farFieldTheta     = -1.0;
+      int     pyramidLevels     = -1;
+      int     tileSize          = -1;
+      boolean batch             = false;
+      int     workers           = -1;
+      String  output            = null;
+      String  format            = null;
+      String  metrics           = null;
+      String  checkpoint        = null;
+      int     checkpointEvery   = -1;
+      boolean resume            = false;
+      int     sleepIterations   = -1;
+      String  kernel            = null;
+      int     serverPort        = -1;
+      String  cacheDir          = null;
+      long    cacheSize         = 1024L;
+      String  sweepIterations   = null;
+      String  sweepRadii        = null;
+      String  sweepMovements    = null;
+      int[]   milestones        = null;
+      int     a = 0;
+
+      for ( ; a < args.length && args[a].startsWith("-"); a++)
+      {
+         if (args[a].equals("-headless"))
+         {
+            headless = true;
+         }
+         else if (args[a].equals("-cellsize") && (a + 1 < args.length))
+         {
+            cellSize = Integer.parseInt(args[++a]);
+            if (cellSize < 1)
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-converge") && (a + 1 < args.length))
+         {
+            convergenceWindow = Integer.parseInt(args[++a]);
+            if (convergenceWindow < 1)
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-farfield") && (a + 1 < args.length))
+         {
+            farFieldTheta = Double.parseDouble(args[++a]);
+            if (!(farFieldTheta >= 0.0) || (farFieldTheta > CellLocator.MAX_FAR_FIELD_THETA))
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-pyramid") && (a + 1 < args.length))
+         {
+            pyramidLevels = Integer.parseInt(args[++a]);
+            if (pyramidLevels < 0)
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-tile") && (a + 1 < args.length))
+         {
+            headless = true;
+            tileSize = Integer.parseInt(args[++a]);
+            if (tileSize < 1)
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-batch"))
+         {
+            headless = true;
+            batch    = true;
+         }
+         else if (args[a].equals("-server") && (a + 1 < args.length))
+         {
+            serverPort = Integer.parseInt(args[++a]);
+            if ((serverPort < 0) || (serverPort > 65535))
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-sweep") && (a + 3 < args.length))
+         {
+            headless        = true;
+            sweepIterations = args[++a];
+            sweepRadii      = args[++a];
+            sweepMovements  = args[++a];
+         }
+         else if (args[a].equals("-milestones") && (a + 1 < args.length))
+         {
+            try
+            {
+               milestones = ParameterSweep.parseInts(args[++a]);
+            }
+            catch (NumberFormatException e) {
+               usage();
+            }
+            Arrays.sort(milestones);
+            if (milestones[0] < 0)
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-cache") && (a + 1 < args.length))
+         {
+            cacheDir = args[++a];
+         }
+         else if (args[a].equals("-cachesize") && (a + 1 < args.length))
+         {
+            cacheSize = Long.parseLong(args[++a]);
+            if (cacheSize < 0L)
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-workers") && (a + 1 < args.length))
+         {
+            workers = Integer.parseInt(args[++a]);
+            if (workers < 1)
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-output") && (a + 1 < args.length))
+         {
+            headless = true;
+            output   = args[++a];
+         }
+         else if (args[a].equals("-format") && (a + 1 < args.length))
+         {
+            format = args[++a];
+            if (!ResultSink.isFormat(format))
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-metrics") && (a + 1 < args.length))
+         {
+            metrics = args[++a];
+         }
+         else if (args[a].equals("-checkpoint") && (a + 1 < args.length))
+         {
+            checkpoint = args[++a];
+         }
+         else if (args[a].equals("-checkpointevery") && (a + 1 < args.length))
+         {
+            checkpointEvery = Integer.parseInt(args[++a]);
+            if (checkpointEvery < 1)
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-resume"))
+         {
+            resume = true;
+         }
+         else if (args[a].equals("-sleep") && (a + 1 < args.length))
+         {
+            sleepIterations = Integer.parseInt(args[++a]);
+            if (sleepIterations < 0)
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-kernel") && (a + 1 < args.length))
+         {
+            kernel = args[++a];
+            if (!Arrays.asList(CellLocator.FORCE_KERNELS).contains(kernel))
+            {
+               usage();
+            }
+         }
+         else if (args[a].equals("-threads") && (a + 1 < args.length))
+         {
+            threads = Integer.parseInt(args[++a]);
+            if (threads < 1)
+            {
+               usage();
+            }
+         }
+         else
+         {
+            usage();
+         }
+      }
+      if (headless)
+      {
+         System.setProperty("java.awt.headless", "true");
+      }
+      CellLocator locator  = new CellLocator();
+      String      filename = null;
 
-      switch (args.length)
+      if (threads != -1)
+      {
+         locator.THREADS = threads;
+      }
+      if (cellSize != -1)
+      {
+         locator.CELL_SIZE = cellSize;
+      }
+      if (convergenceWindow != -1)
+      {
+         locator.CONVERGENCE_WINDOW = convergenceWindow;
+      }
+      if (farFieldTheta >= 0.0)
+      {
+         locator.FAR_FIELD_THETA = farFieldTheta;
+      }
+      if (pyramidLevels != -1)
+      {
+         locator.PYRAMID_LEVELS = pyramidLevels;
+      }
+      if (sleepIterations != -1)
+      {
+         locator.SLEEP_ITERATIONS = sleepIterations;
+      }
+      if (kernel != null)
+      {
+         locator.FORCE_KERNEL = kernel;
+      }
+      if (checkpoint != null)
+      {
+         locator.CHECKPOINT_FILE = new File(checkpoint);
+         locator.RESUME          = resume;
+      }
+      else if (resume)
+      {
+         usage();
+      }
+      if (checkpointEvery != -1)
+      {
+         locator.CHECKPOINT_INTERVAL = checkpointEvery;
+      }
+
+      switch (args.length - a)
       {
       case 0:
-         az.init(null);
          break;
 
       case 1:
-         az.init(args[0]);
+         filename = args[a];
          break;
 
       case 4:
-         az.ITERATIONS = Integer.parseInt(args[0]);
-         az.PIXEL_NEIGHBORHOOD_RADIUS = Integer.parseInt(args[1]);
-         az.PIXEL_MOVEMENT            = Float.parseFloat(args[2]);
-         az.init(args[3]);
+         locator.ITERATIONS = Integer.parseInt(args[a]);
+         locator.PIXEL_NEIGHBORHOOD_RADIUS = Integer.parseInt(args[a + 1]);
+         locator.PIXEL_MOVEMENT            = Float.parseFloat(args[a + 2]);
+         filename = args[a + 3];
          break;
 
       default:
-         System.err.println("Usage: java AlzheimersInclusions [<image file>]");
-         System.exit(1);
+         usage();
+      }
+      if (milestones != null)
+      {
+         // Milestones are only reported by the headless and batch runs.
+         if (!headless || (tileSize != -1) || (serverPort != -1) || (sweepIterations != null))
+         {
+            usage();
+         }
+         locator.MILESTONES = milestones;
+         if (args.length - a != 4)
+         {
+            locator.ITERATIONS = milestones[milestones.length - 1];
+         }
+         else if (milestones[milestones.length - 1] > locator.ITERATIONS)
+         {
+            usage();
+         }
+      }
+      // A sweep prints its table, and neither writes results nor metrics
+      // nor uses the cache.
+      if ((sweepIterations != null) &&
+          ((output != null) || (format != null) || (metrics != null) || (cacheDir != null)))
+      {
+         usage();
+      }
+      // The pyramid cells are approximate, so they are only given to a
+      // single image run, and never cached.
+      if ((pyramidLevels > 0) &&
+          (batch || (tileSize != -1) || (serverPort != -1) || (sweepIterations != null) || (cacheDir != null)))
+      {
+         usage();
+      }
+      ResultCache cache = null;
+      if (cacheDir != null)
+      {
+         try
+         {
+            cache = new ResultCache(new File(cacheDir), cacheSize << 20);
+         }
+         catch (IOException e) {
+            System.err.println("An error occurred while trying to open the cache:\n" + e.getMessage());
+            System.exit(1);
+         }
+      }
+      if (serverPort != -1)
+      {
+         if (filename != null)
+         {
+            usage();
+         }
+         if (!runServer(locator, serverPort, workers, threads != -1, cache))
+         {
+            System.exit(1);
+         }
+      }
+      else if (headless)
+      {
+         if (filename == null)
+         {
+            usage();
+         }
+         ResultSink sink = null;
+         if (output != null)
+         {
+            if (output.equals("-"))
+            {
+               locator.progress = null;
+            }
+            try
+            {
+               sink = ResultSink.open((format != null) ? format : "csv", output);
+            }
+            catch (IOException e) {
+               System.err.println("An error occurred while trying to open the output:\n" + e.getMessage());
+               System.exit(1);
+            }
+         }
+         PrintStream metricsOut = null;
+         if (metrics != null)
+         {
+            try
+            {
+               metricsOut = new PrintStream(new FileOutputStream(metrics, true));
+            }
+            catch (IOException e) {
+               System.err.println("An error occurred while trying to open the metrics file:\n" + e.getMessage());
+               System.exit(1);
+            }
+         }
+         boolean done;
+         if (sweepIterations != null)
+         {
+            done = runSweep(locator, filename, sweepIterations, sweepRadii, sweepMovements,
+                            workers, threads != -1);
+         }
+         else if (batch)
+         {
+            done = runBatch(locator, filename, workers, threads != -1, sink, metricsOut, cache);
+         }
+         else
+         {
+            locator.metrics.register(filename);
+            if (tileSize != -1)
+            {
+               done = runTiled(locator, filename, tileSize, sink);
+            }
+            else
+            {
+               if (milestones != null)
+               {
+                  locator.milestoneListener = milestoneWriter(filename, sink, System.out);
+               }
+               done = runHeadless(locator, filename, sink, cache);
+            }
+            if (metricsOut != null)
+            {
+               metricsOut.println(locator.metrics.getSummary(filename));
+            }
+         }
+         if (metricsOut != null)
+         {
+            metricsOut.close();
+         }
+         if (sink != null)
+         {
+            try
+            {
+               sink.close();
+            }
+            catch (IOException e) {
+               System.err.println("An error occurred while trying to write the output:\n" + e.getMessage());
+               done = false;
+            }
+         }
+         if (done)
+         {
+            System.exit(0);
+         }
+         else
+         {
+            System.exit(1);
+         }
+      }
+      else
+      {
+         locator.metrics.register("window");
+         AlzheimersInclusions az = new AlzheimersInclusions();
+         az.locator = locator;
+         az.init(filename);
       }
    }
 
 
+   // Print usage and exit.
+   private static void usage()
+   {
+      System.err.println("Usage: java AlzheimersInclusions [-headless] [-threads <count>] [-cellsize <pixels>] [-converge <iterations>] [-farfield <theta>] [-pyramid <levels>] [-sleep <iterations>] [-kernel double|float|vector] [-tile <pixels>] [-batch] [-server <port>] [-sweep <iterations>,... <neighborhood radius>,... <movement>,...] [-workers <count>] [-cache <directory> [-cachesize <megabytes>]] [-milestones <iterations>,...] [-output <file>] [-format csv|jsonl|binary] [-metrics <file>] [-checkpoint <file> [-checkpointevery <iterations>] [-resume]] [<iterations> <neighborhood radius> <movement>] [<image file>]");
+      System.err.println("-sleep can change the results: clusters that drift slowly freeze.");
+      System.exit(1);
+   }
+
+
    // Image loading.
    private JMenuItem saveImageMenuItem;
    private JMenuItem reloadImageMenuItem;
@@ -70,179 +486,439 @@ public class AlzheimersInclusions extends JPanel
    private File      currentFile = null;
 
    // Cell locating.
-   public int    ITERATIONS = 1000;
-   public int    PIXEL_NEIGHBORHOOD_RADIUS = 10;
-   public double PIXEL_MOVEMENT            = 0.1;
+   public CellLocator locator = new CellLocator();
+
+   // Drawing. The locating thread publishes particle snapshots at most
+   // every DISPLAY_DELAY ms, which the display timer draws on the event
+   // dispatch thread when the display has changed.
+   public static final int  DISPLAY_DELAY  = 50;
+   private volatile int[]   snapshot       = null;
+   private volatile boolean displayChanged = false;
+   private long             snapshotTime   = 0;
+   private Timer            displayTimer   = null;
+   private JFrame           window;
+   private JScrollPane      scrollFrame;
+   private BufferedImage    OSC;
+   private Graphics2D       OSG;
+   private BufferedImage    currentImage = null;
+   private BufferedImage    drawImage    = null;
+   private Graphics2D       drawGraphics;
+   private int              imageWidth  = -1;
+   private int              imageHeight = -1;
+
+   // Synchronization.
+   public static final int ABORT_DELAY = 10;
+   private Object          lock;
+   private boolean         running;
+
+   /**
+    * Constructor,
+    */
+   public AlzheimersInclusions()
+   {
+   }
+
 
-   // Red color?
-   private boolean isRed(int color)
+   /**
+    * Set the preferred size of the panel, creates the BufferedImage,
+    * installs a mouse listener on the panel and optionally load an image file.
+    */
+   public void init(String filename)
    {
-      if ((color & 0x00FF0000) > 0)
+      setPreferredSize(new Dimension(640, 480));
+      setAutoscrolls(true);
+      OSC = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+      OSG = OSC.createGraphics();
+      OSG.setColor(Color.WHITE);
+      OSG.fillRect(0, 0, 640, 480);
+      OSG.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      addMouseListener(new MouseHandler());
+      window      = new JFrame("Alzheimer's Inclusions");
+      scrollFrame = new JScrollPane(this);
+      scrollFrame.setPreferredSize(new Dimension(640, 480));
+      window.add(scrollFrame);
+      window.setJMenuBar(this.getMenuBar());
+      window.pack();
+      Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
+      window.setLocation((screenSize.width - window.getWidth()) / 2,
+                         (screenSize.height - window.getHeight()) / 2);
+      window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+      lock    = new Object();
+      running = false;
+      window.setVisible(true);
+
+      // Load image file?
+      if (filename != null)
       {
-         return(true);
+         currentFile = new File(filename);
+         if (loadImageFile())
+         {
+            initPixels();
+            reloadImageMenuItem.setEnabled(true);
+            saveImageMenuItem.setEnabled(true);
+            runMenuItem.setEnabled(true);
+         }
+      }
+
+      // Start drawing.
+      drawCells();
+   }
+
+
+   /**
+    * Run without a window: load the image, locate the cells, print the
+    * coordinates and save the output image next to the input file.
+    */
+   public static boolean runHeadless(CellLocator locator, String filename)
+   {
+      return(runHeadless(locator, filename, null));
+   }
+
+
+   /**
+    * Run without a window, writing the coordinates to a result sink, or
+    * printing them if the sink is null.
+    */
+   public static boolean runHeadless(CellLocator locator, String filename, ResultSink sink)
+   {
+      return(runHeadless(locator, filename, sink, null));
+   }
+
+
+   /**
+    * Run without a window, taking the results from a result cache if it is
+    * not null and has them, and otherwise adding them to it.
+    */
+   public static boolean runHeadless(CellLocator locator, String filename, ResultSink sink, ResultCache cache)
+   {
+      File          file = new File(filename);
+      BufferedImage image;
+
+      try
+      {
+         locator.metrics.begin(Metrics.LOAD);
+         image = ImageIO.read(file);
+         locator.metrics.end(Metrics.LOAD);
+      }
+      catch (IOException e) {
+         System.err.println("An error occurred while trying to open the file:\n" + e.getMessage());
+         return(false);
+      }
+      if ((image == null) || (image.getWidth() <= 0) || (image.getHeight() <= 0))
+      {
+         System.err.println("File does not contain a recognized image format");
+         return(false);
+      }
+      locator.setImage(image);
+      String name = file.getName();
+      int    i    = name.lastIndexOf('.');
+      if (i != -1)
+      {
+         name = name.substring(0, i);
+      }
+      File              outputFile = new File(file.getAbsoluteFile().getParentFile(), name + "_output.png");
+      String            key        = null;
+      ResultCache.Entry entry      = null;
+      if (cache != null)
+      {
+         key = locator.getResultKey();
+         if (locator.MILESTONES == null)
+         {
+            entry = cache.get(key, true);
+         }
+      }
+      int[] cells;
+      int[] inclusions;
+      if (entry != null)
+      {
+         if (locator.progress != null)
+         {
+            locator.progress.println("cached result=" + key);
+         }
+         cells      = entry.cells;
+         inclusions = entry.inclusions;
       }
       else
       {
+         locator.initPixels();
+         if (!locator.locateCells())
+         {
+            System.err.println("Aborting");
+            return(false);
+         }
+         locator.finalizeImage();
+         cells      = locator.getCellCoordinates();
+         inclusions = locator.getInclusionCoordinates();
+      }
+      if (sink == null)
+      {
+         CellLocator.printCoordinates(cells, inclusions, System.out);
+      }
+      else
+      {
+         try
+         {
+            sink.write(filename, cells, inclusions);
+         }
+         catch (IOException e) {
+            System.err.println("An error occurred while trying to write the output:\n" + e.getMessage());
+            return(false);
+         }
+      }
+      try
+      {
+         if (entry != null)
+         {
+            Files.copy(entry.image.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+         }
+         else
+         {
+            ImageIO.write(locator.currentImage, "png", outputFile);
+         }
+      }
+      catch (IOException e) {
+         System.err.println("An error occurred while trying to write the image:\n" + e.getMessage());
          return(false);
       }
+      if ((cache != null) && (entry == null))
+      {
+         try
+         {
+            cache.put(key, cells, inclusions, outputFile);
+         }
+         catch (IOException e) {
+            System.err.println("An error occurred while trying to cache the results:\n" + e.getMessage());
+         }
+      }
+      return(true);
+   }
+
+
+   /**
+    * Run tile by tile without a window and print the coordinates,
+    * for images too large to decode at once. No output image is written.
+    */
+   public static boolean runTiled(CellLocator locator, String filename, int tileSize)
+   {
+      return(runTiled(locator, filename, tileSize, null));
+   }
+
+
+   /**
+    * Run tile by tile, writing the coordinates to a result sink, or
+    * printing them if the sink is null.
+    */
+   public static boolean runTiled(CellLocator locator, String filename, int tileSize, ResultSink sink)
+   {
+      TiledLocator tiled = new TiledLocator(locator, tileSize);
+
+      try
+      {
+         if (!tiled.locate(new File(filename)))
+         {
+            System.err.println("Aborting");
+            return(false);
+         }
+      }
+      catch (IOException e) {
+         System.err.println("An error occurred while trying to read the image:\n" + e.getMessage());
+         return(false);
+      }
+      if (sink == null)
+      {
+         CellLocator.printCoordinates(tiled.cellCoordinates, tiled.inclusionCoordinates, System.out);
+      }
+      else
+      {
+         try
+         {
+            sink.write(filename, tiled.cellCoordinates, tiled.inclusionCoordinates);
+         }
+         catch (IOException e) {
+            System.err.println("An error occurred while trying to write the output:\n" + e.getMessage());
+            return(false);
+         }
+      }
+      return(true);
    }
 
 
-   // Green color?
-   private boolean isGreen(int color)
+   /**
+    * Serve locate requests on a loopback port until the process ends, with
+    * a result cache if it is not null. Unless the locator threads are given,
+    * the processors are shared among the workers. Returns false if the
+    * server cannot start.
+    */
+   public static boolean runServer(CellLocator locator, int port, int workers, boolean threadsGiven,
+                                   ResultCache cache)
    {
-      if ((color & 0x0000FF00) > 0)
+      int processors = Runtime.getRuntime().availableProcessors();
+
+      if (workers == -1)
       {
-         return(true);
+         workers = processors;
       }
-      else
+      if (!threadsGiven)
       {
-         return(false);
+         locator.THREADS = Math.max(1, processors / workers);
       }
-   }
-
-
-   // Blue (light blue)?
-   private boolean isBlue(int color)
-   {
-      if ((color & 0x000000FF) >= 0x20)
+      LocatorServer server = new LocatorServer(locator, port, workers);
+      server.progress = locator.progress;
+      server.cache    = cache;
+      try
       {
-         return(true);
+         server.start();
       }
-      else
-      {
+      catch (IOException e) {
+         System.err.println("An error occurred while trying to start the server:\n" + e.getMessage());
          return(false);
       }
+      return(true);
    }
 
 
-   // Black (dark blue)?
-   private boolean isBlack(int color)
+   /**
+    * A milestone listener writing the coordinates of an image at each
+    * milestone to a result sink, with the image id tagged @<iterations>, or
+    * printing them under a heading to a stream if the sink is null.
+    */
+   public static CellLocator.MilestoneListener milestoneWriter(final String image, final ResultSink sink,
+                                                               final PrintStream out)
    {
-      color = color & 0x000000FF;
-      if ((color >= 0) && (color < 0x20))
-      {
-         return(true);
-      }
-      else
-      {
-         return(false);
-      }
+      return(new CellLocator.MilestoneListener()
+             {
+                @Override
+                public void milestone(int iterations, int[] cells, int[] inclusions)
+                {
+                   if (sink == null)
+                   {
+                      out.println("Milestone iterations=" + iterations + ":");
+                      CellLocator.printCoordinates(cells, inclusions, out);
+                   }
+                   else
+                   {
+                      try
+                      {
+                         sink.write(image + "@" + iterations, cells, inclusions);
+                      }
+                      catch (IOException e) {
+                         System.err.println("An error occurred while trying to write the output:\n" + e.getMessage());
+                      }
+                   }
+                }
+             }
+             );
    }
 
 
-   // Pixel tracking.
-   public class Pixel
+   /**
+    * Run a parameter sweep of comma separated lists of iterations, radii and
+    * movements on an image without a window, and print the table of counts.
+    * Unless the locator threads are given, the processors are shared among
+    * the workers.
+    */
+   public static boolean runSweep(CellLocator locator, String filename, String iterations, String radii,
+                                  String movements, int workers, boolean threadsGiven)
    {
-      Point    p0;
-      Vector2d pt;
-      Vector2d pd;
-      int      rgb;
+      int processors = Runtime.getRuntime().availableProcessors();
 
-      public Pixel(int x, int y, int rgb)
+      if (workers == -1)
       {
-         p0       = new Point(x, y);
-         pt       = new Vector2d((double)x + 0.5f, (double)y + 0.5f);
-         pd       = new Vector2d((double)x + 0.5f, (double)y + 0.5f);
-         this.rgb = rgb;
+         workers = processors;
       }
-
-
-      public void print()
+      if (!threadsGiven)
       {
-         System.out.println("p0: x=" + p0.x + ", y=" + p0.y);
-         System.out.println("pt: x=" + pt.x + ", y=" + pt.y);
-         System.out.println("pd: x=" + pd.x + ", y=" + pd.y);
-         int color = rgb;
-         System.out.print("color=" + String.format("0x%08X", color));
-         if (isRed(color))
-         {
-            System.out.print(",red");
-         }
-         if (isBlue(color))
+         locator.THREADS = Math.max(1, processors / workers);
+      }
+      ParameterSweep sweep = new ParameterSweep(locator, workers);
+      try
+      {
+         sweep.iterations = ParameterSweep.parseInts(iterations);
+         sweep.radii      = ParameterSweep.parseInts(radii);
+         sweep.movements  = ParameterSweep.parseMovements(movements);
+      }
+      catch (NumberFormatException e) {
+         System.err.println("Invalid sweep list: " + e.getMessage());
+         return(false);
+      }
+      for (int i : sweep.iterations)
+      {
+         if (i < 0)
          {
-            System.out.print(",blue");
+            System.err.println("Invalid sweep list: iterations " + i);
+            return(false);
          }
-         if (isBlack(color))
+      }
+      for (int radius : sweep.radii)
+      {
+         if (radius < 1)
          {
-            System.out.print(",black");
+            System.err.println("Invalid sweep list: radius " + radius);
+            return(false);
          }
-         System.out.println();
       }
-   }
-   public Pixel[][] Pixels = null;
-   public ArrayList<Pixel>[][] PixelTracker = null;
-
-   // Drawing.
-   public static final int DISPLAY_DELAY = 50;
-   private JFrame          window;
-   private JScrollPane     scrollFrame;
-   private BufferedImage   OSC;
-   private Graphics2D      OSG;
-   private BufferedImage   currentImage = null;
-   private BufferedImage   drawImage    = null;
-   private Graphics2D      drawGraphics;
-   private int             imageWidth  = -1;
-   private int             imageHeight = -1;
-
-   // Synchronization.
-   public static final int ABORT_DELAY = 10;
-   private Object          lock;
-   private boolean         running;
-   private boolean         abort;
-
-   /**
-    * Constructor,
-    */
-   public AlzheimersInclusions()
-   {
+      sweep.progress = locator.progress;
+      BufferedImage image;
+      try
+      {
+         locator.metrics.begin(Metrics.LOAD);
+         image = ImageIO.read(new File(filename));
+         locator.metrics.end(Metrics.LOAD);
+      }
+      catch (IOException e) {
+         System.err.println("An error occurred while trying to open the file:\n" + e.getMessage());
+         return(false);
+      }
+      if ((image == null) || (image.getWidth() <= 0) || (image.getHeight() <= 0))
+      {
+         System.err.println("File does not contain a recognized image format");
+         return(false);
+      }
+      ArrayList<ParameterSweep.Setting> settings = sweep.run(image);
+      if (settings == null)
+      {
+         return(false);
+      }
+      ParameterSweep.writeTable(settings, System.out);
+      return(true);
    }
 
 
    /**
-    * Set the preferred size of the panel, creates the BufferedImage,
-    * installs a mouse listener on the panel and optionally load an image file.
+    * Run a directory or list of images without a window, writing the output
+    * image and coordinates of each next to it, or the coordinates to a
+    * result sink if it is not null, and the metrics summaries to a stream
+    * if it is not null, with a result cache if it is not null. Unless the
+    * locator threads are given, the processors are shared among the workers.
     */
-   public void init(String filename)
+   public static boolean runBatch(CellLocator locator, String filename, int workers, boolean threadsGiven,
+                                  ResultSink sink, PrintStream metricsOut, ResultCache cache)
    {
-      setPreferredSize(new Dimension(640, 480));
-      setAutoscrolls(true);
-      OSC = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
-      OSG = OSC.createGraphics();
-      OSG.setColor(Color.WHITE);
-      OSG.fillRect(0, 0, 640, 480);
-      OSG.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-      addMouseListener(new MouseHandler());
-      window      = new JFrame("Alzheimer's Inclusions");
-      scrollFrame = new JScrollPane(this);
-      scrollFrame.setPreferredSize(new Dimension(640, 480));
-      window.add(scrollFrame);
-      window.setJMenuBar(this.getMenuBar());
-      window.pack();
-      Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
-      window.setLocation((screenSize.width - window.getWidth()) / 2,
-                         (screenSize.height - window.getHeight()) / 2);
-      window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-      lock    = new Object();
-      running = false;
-      abort   = false;
-      window.setVisible(true);
+      int processors = Runtime.getRuntime().availableProcessors();
 
-      // Load image file?
-      if (filename != null)
+      if (workers == -1)
       {
-         currentFile = new File(filename);
-         if (loadImageFile())
-         {
-            initPixels();
-            reloadImageMenuItem.setEnabled(true);
-            saveImageMenuItem.setEnabled(true);
-            runMenuItem.setEnabled(true);
-         }
+         workers = processors;
       }
-
-      // Start drawing.
-      drawCells();
+      if (!threadsGiven)
+      {
+         locator.THREADS = Math.max(1, processors / workers);
+      }
+      ArrayList<File> files;
+      try
+      {
+         files = BatchLocator.listImages(new File(filename));
+      }
+      catch (IOException e) {
+         System.err.println("An error occurred while trying to read the image list:\n" + e.getMessage());
+         return(false);
+      }
+      BatchLocator batch = new BatchLocator(locator, workers);
+      batch.sink       = sink;
+      batch.progress   = locator.progress;
+      batch.metricsOut = metricsOut;
+      batch.cache      = cache;
+      return(batch.run(files) == 0);
    }
 
 
@@ -341,71 +1017,13 @@ public class AlzheimersInclusions extends JPanel
    /**
     * Initialize pixels.
     */
-   @SuppressWarnings("unchecked")
    private void initPixels()
    {
       if (currentImage != null)
       {
-         Pixels       = new Pixel[imageWidth][imageHeight];
-         PixelTracker = new ArrayList[imageWidth][imageHeight];
-         for (int x = 0; x < imageWidth; x++)
-         {
-            for (int y = 0; y < imageHeight; y++)
-            {
-               Pixel pixel = new Pixel(x, y, currentImage.getRGB(x, y));
-               Pixels[x][y] = pixel;
-            }
-         }
-
-         // Remove noisy blue pixels.
-         for (int i = 0; i < 10; i++)
-         {
-            for (int x = 0; x < imageWidth; x++)
-            {
-               for (int y = 0; y < imageHeight; y++)
-               {
-                  Pixel pixel = Pixels[x][y];
-                  if (isBlue(pixel.rgb))
-                  {
-                     int blueNeighbors = 0;
-                     for (int x2 = x - 1; x2 <= x + 1; x2++)
-                     {
-                        for (int y2 = y - 1; y2 <= y + 1; y2++)
-                        {
-                           if ((x2 >= 0) && (x2 < imageWidth) && (y2 >= 0) && (y2 < imageHeight))
-                           {
-                              if ((x != x2) || (y != y2))
-                              {
-                                 if (isBlue(Pixels[x2][y2].rgb))
-                                 {
-                                    blueNeighbors++;
-                                 }
-                              }
-                           }
-                        }
-                     }
-                     if (blueNeighbors < 4)
-                     {
-                        pixel.rgb = Color.BLACK.getRGB();
-                        currentImage.setRGB(x, y, Color.BLACK.getRGB());
-                        drawImage.setRGB(x, y, Color.BLACK.getRGB());
-                     }
-                  }
-               }
-            }
-         }
-         for (int x = 0; x < imageWidth; x++)
-         {
-            for (int y = 0; y < imageHeight; y++)
-            {
-               Pixel pixel = Pixels[x][y];
-               PixelTracker[x][y] = new ArrayList<Pixel>();
-               if (isBlue(pixel.rgb))
-               {
-                  PixelTracker[x][y].add(pixel);
-               }
-            }
-         }
+         locator.initPixels();
+         snapshot       = null;
+         displayChanged = true;
       }
    }
 
@@ -479,7 +1097,10 @@ public class AlzheimersInclusions extends JPanel
          try
          {
             abortRun();
+            locator.metrics.reset();
+            locator.metrics.begin(Metrics.LOAD);
             BufferedImage image = ImageIO.read(stream);
+            locator.metrics.end(Metrics.LOAD);
             if (image == null)
             {
                JOptionPane.showMessageDialog(this, "File does not contain a recognized image format");
@@ -496,9 +1117,10 @@ public class AlzheimersInclusions extends JPanel
             g.drawImage(image, 0, 0, OSC.getWidth(), OSC.getHeight(), null);
             g.dispose();
             repaint();
-            currentImage = image;
             imageWidth   = w;
             imageHeight  = h;
+            locator.setImage(image);
+            currentImage = locator.currentImage;
             drawImage    = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
             drawImage.createGraphics();
             drawGraphics = (Graphics2D)drawImage.getGraphics();
@@ -506,6 +1128,8 @@ public class AlzheimersInclusions extends JPanel
                                    0, 0, imageWidth, imageHeight, Color.WHITE, null);
             resizeContent(imageWidth, imageHeight);
             OSG.drawImage(drawImage, 0, 0, imageWidth, imageHeight, null);
+            snapshot       = null;
+            displayChanged = true;
          }
          catch (Exception e)
          {
@@ -581,19 +1205,19 @@ public class AlzheimersInclusions extends JPanel
                }
                int color = currentImage.getRGB(x, y);
                System.out.print("point=" + x + "," + y + " color=" + String.format("0x%08X", color));
-               if (isRed(color))
+               if (CellLocator.isRed(color))
                {
                   System.out.print(",red");
                }
-               if (isGreen(color))
+               if (CellLocator.isGreen(color))
                {
                   System.out.print(",green");
                }
-               if (isBlue(color))
+               if (CellLocator.isBlue(color))
                {
                   System.out.print(",blue");
                }
-               if (isBlack(color))
+               if (CellLocator.isBlack(color))
                {
                   System.out.print(",black");
                }
@@ -620,262 +1244,59 @@ public class AlzheimersInclusions extends JPanel
       }
       runMenuItem.setEnabled(false);
       abortMenuItem.setEnabled(true);
-      updateImage();
-      for (int i = 0; i < ITERATIONS; i++)
+      publishSnapshot(true);
+      locator.iterationListener = new Runnable()
       {
-         System.out.println("iteration=" + (i + 1) + "/" + ITERATIONS);
-         for (int x = 0; x < imageWidth; x++)
-         {
-            for (int y = 0; y < imageHeight; y++)
-            {
-               if (abort)
-               {
-                  running = false;
-                  runMenuItem.setEnabled(true);
-                  abortMenuItem.setEnabled(false);
-                  JOptionPane.showMessageDialog(this, "Aborting");
-                  return;
-               }
-               Pixel pixel = Pixels[x][y];
-               if (isBlue(pixel.rgb))
-               {
-                  Vector2d f = new Vector2d();
-                  for (int x2 = (int)pixel.pt.x - PIXEL_NEIGHBORHOOD_RADIUS; x2 <= (int)pixel.pt.x + PIXEL_NEIGHBORHOOD_RADIUS; x2++)
-                  {
-                     for (int y2 = (int)pixel.pt.y - PIXEL_NEIGHBORHOOD_RADIUS; y2 <= (int)pixel.pt.y + PIXEL_NEIGHBORHOOD_RADIUS; y2++)
-                     {
-                        if ((x2 >= 0) && (x2 < imageWidth) && (y2 >= 0) && (y2 < imageHeight))
-                        {
-                           for (Pixel pixel2 : PixelTracker[x2][y2])
-                           {
-                              if (pixel2 == pixel) { continue; }
-                              Vector2d v = new Vector2d(pixel2.pt);
-                              v.sub(pixel.pt);
-                              double d = v.length();
-                              v.normalize();
-                              if (d > 1.0)
-                              {
-                                 v.scale(1.0 / (d * d));
-                              }
-                              f.add(v);
-                           }
-                        }
-                     }
-                  }
-                  pixel.pd.set(pixel.pt);
-                  double d = f.length();
-                  if (d > 0.0)
-                  {
-                     f.normalize();
-                     f.scale(PIXEL_MOVEMENT);
-                     pixel.pd.add(f);
-                  }
-               }
-            }
-         }
-         for (int x = 0; x < imageWidth; x++)
-         {
-            for (int y = 0; y < imageHeight; y++)
-            {
-               PixelTracker[x][y].clear();
-               Pixel pixel = Pixels[x][y];
-               if (isBlue(pixel.rgb))
-               {
-                  pixel.pt.x = pixel.pd.x;
-                  pixel.pt.y = pixel.pd.y;
-                  if ((int)pixel.pt.x < 0)
-                  {
-                     pixel.pt.x = 0.0;
-                  }
-                  if ((int)pixel.pt.x >= imageWidth)
-                  {
-                     pixel.pt.x = (double)(imageWidth - 1);
-                  }
-                  if ((int)pixel.pt.y < 0)
-                  {
-                     pixel.pt.y = 0.0;
-                  }
-                  if ((int)pixel.pt.y >= imageHeight)
-                  {
-                     pixel.pt.x = (double)(imageHeight - 1);
-                  }
-               }
-            }
-         }
-         for (int x = 0; x < imageWidth; x++)
+         @Override
+         public void run()
          {
-            for (int y = 0; y < imageHeight; y++)
-            {
-               Pixel pixel = Pixels[x][y];
-               if (isBlue(pixel.rgb))
-               {
-                  PixelTracker[(int)pixel.pt.x][(int)pixel.pt.y].add(pixel);
-               }
-            }
+            publishSnapshot(false);
          }
-         updateImage();
+      };
+      boolean done = locator.locateCells();
+      publishSnapshot(true);
+      if (done)
+      {
+         locator.finalizeImage();
+         locator.printCoordinates();
       }
-      finalizeImage();
-      printCoordinates();
       running = false;
       runMenuItem.setEnabled(true);
       abortMenuItem.setEnabled(false);
-      JOptionPane.showMessageDialog(this, "Done");
-   }
-
-
-   /**
-    * Update image.
-    */
-   private void updateImage()
-   {
-      drawGraphics.drawImage(currentImage, 0, 0, imageWidth, imageHeight,
-                             0, 0, imageWidth, imageHeight, Color.WHITE, null);
-      for (int x = 0; x < imageWidth; x++)
+      if (done)
       {
-         for (int y = 0; y < imageHeight; y++)
-         {
-            Pixel pixel = Pixels[x][y];
-            if (isBlue(pixel.rgb))
-            {
-               drawImage.setRGB((int)pixel.pt.x, (int)pixel.pt.y, Color.GREEN.getRGB());
-            }
-         }
+         JOptionPane.showMessageDialog(this, "Done");
       }
-   }
-
-
-   /**
-    * Finalize image.
-    */
-   private void finalizeImage()
-   {
-      for (int x = 0; x < imageWidth; x++)
+      else
       {
-         for (int y = 0; y < imageHeight; y++)
-         {
-            Pixel pixel = Pixels[x][y];
-            if (isBlue(pixel.rgb))
-            {
-               currentImage.setRGB((int)pixel.pt.x, (int)pixel.pt.y, Color.GREEN.getRGB());
-            }
-         }
+         JOptionPane.showMessageDialog(this, "Aborting");
       }
    }
 
 
    /**
-    * Print cell and inclusion coordinates.
+    * Publish the particle pixels for display, at most every DISPLAY_DELAY ms
+    * unless forced.
     */
-   private void printCoordinates()
+   private void publishSnapshot(boolean force)
    {
-      if (currentImage != null)
-      {
-         // Print cell coordinates.
-         boolean[][] markers = new boolean[imageWidth][imageHeight];
-         for (int x = 0; x < imageWidth; x++)
-         {
-            for (int y = 0; y < imageHeight; y++)
-            {
-               if (isGreen(currentImage.getRGB(x, y)))
-               {
-                  markers[x][y] = true;
-               }
-               else
-               {
-                  markers[x][y] = false;
-               }
-            }
-         }
-         for (int x = 0; x < imageWidth; x++)
-         {
-            for (int y = 0; y < imageHeight; y++)
-            {
-               if (markers[x][y])
-               {
-                  for (int x2 = x - 1; x2 <= x + 1; x2++)
-                  {
-                     for (int y2 = y - 1; y2 <= y + 1; y2++)
-                     {
-                        if ((x2 >= 0) && (x2 < imageWidth) && (y2 >= 0) && (y2 < imageHeight))
-                        {
-                           if ((x != x2) || (y != y2))
-                           {
-                              if (markers[x2][y2])
-                              {
-                                 markers[x][y] = false;
-                              }
-                           }
-                        }
-                     }
-                  }
-               }
-            }
-         }
-         System.out.println("Cell (blue blob) coordinates:");
-         for (int x = 0; x < imageWidth; x++)
-         {
-            for (int y = 0; y < imageHeight; y++)
-            {
-               if (markers[x][y])
-               {
-                  System.out.println(x + "," + y);
-               }
-            }
-         }
+      long now = System.currentTimeMillis();
 
-         // Print inclusion coordinates.
-         for (int x = 0; x < imageWidth; x++)
-         {
-            for (int y = 0; y < imageHeight; y++)
-            {
-               if (isRed(currentImage.getRGB(x, y)))
-               {
-                  markers[x][y] = true;
-               }
-               else
-               {
-                  markers[x][y] = false;
-               }
-            }
-         }
-         for (int x = 0; x < imageWidth; x++)
-         {
-            for (int y = 0; y < imageHeight; y++)
-            {
-               if (markers[x][y])
-               {
-                  for (int x2 = x - 1; x2 <= x + 1; x2++)
-                  {
-                     for (int y2 = y - 1; y2 <= y + 1; y2++)
-                     {
-                        if ((x2 >= 0) && (x2 < imageWidth) && (y2 >= 0) && (y2 < imageHeight))
-                        {
-                           if ((x != x2) || (y != y2))
-                           {
-                              if (markers[x2][y2])
-                              {
-                                 markers[x][y] = false;
-                              }
-                           }
-                        }
-                     }
-                  }
-               }
-            }
-         }
-         System.out.println("Inclusion (red dot) coordinates:");
-         for (int x = 0; x < imageWidth; x++)
-         {
-            for (int y = 0; y < imageHeight; y++)
-            {
-               if (markers[x][y])
-               {
-                  System.out.println(x + "," + y);
-               }
-            }
-         }
+      if (!force && (now - snapshotTime < DISPLAY_DELAY))
+      {
+         return;
+      }
+      snapshotTime = now;
+      locator.metrics.begin(Metrics.UPDATE_IMAGE);
+      Particles particles = locator.Particles;
+      int[]     pixels    = new int[particles.count];
+      for (int p = 0; p < particles.count; p++)
+      {
+         pixels[p] = (int)particles.y[p] * imageWidth + (int)particles.x[p];
       }
+      snapshot       = pixels;
+      displayChanged = true;
+      locator.metrics.end(Metrics.UPDATE_IMAGE);
    }
 
 
@@ -886,39 +1307,58 @@ public class AlzheimersInclusions extends JPanel
    {
       while (running)
       {
-         abort = true;
+         locator.abort = true;
          try
          {
             Thread.sleep(ABORT_DELAY);
          }
          catch (InterruptedException e) {}
       }
-      abort = false;
+      locator.abort = false;
    }
 
 
    /**
-    * Draw cells.
+    * Draw cells: start the display timer.
     */
    public void drawCells()
    {
-      while (true)
-      {
-         synchronized (lock)
-         {
-            if (drawImage != null)
-            {
-               OSG.drawImage(drawImage, 0, 0, imageWidth, imageHeight, null);
-               repaint();
-            }
-         }
+      displayTimer = new Timer(DISPLAY_DELAY, new ActionListener()
+                               {
+                                  public void actionPerformed(ActionEvent evt)
+                                  {
+                                     updateImage();
+                                  }
+                               }
+                               );
+      displayTimer.start();
+   }
 
-         try
+
+   /**
+    * Draw the image and the latest particle snapshot, if changed.
+    */
+   private void updateImage()
+   {
+      if (!displayChanged || (drawImage == null))
+      {
+         return;
+      }
+      displayChanged = false;
+      int[] pixels = snapshot;
+      drawGraphics.drawImage(currentImage, 0, 0, imageWidth, imageHeight,
+                             0, 0, imageWidth, imageHeight, Color.WHITE, null);
+      if (pixels != null)
+      {
+         int[] data  = ((DataBufferInt)drawImage.getRaster().getDataBuffer()).getData();
+         int   green = Color.GREEN.getRGB() & 0x00FFFFFF;
+         for (int i : pixels)
          {
-            Thread.sleep(DISPLAY_DELAY);
+            data[i] = green;
          }
-         catch (InterruptedException e) {}
       }
+      OSG.drawImage(drawImage, 0, 0, imageWidth, imageHeight, null);
+      repaint();
    }
 
 
@@ -0,0 +1,328 @@
+// Batch cell and inclusion locator.
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/**
+ * Locates cells and inclusions in many images on a fixed pool of workers.
+ * Each image gets its own CellLocator, and its results are written next to
+ * it as <name>_output.png and <name>_coordinates.txt, or to a shared result
+ * sink. An image that fails is reported and skipped. With a result cache,
+ * an image whose results are cached is not located again.
+ */
+public class BatchLocator
+{
+   // Image file suffixes of a directory.
+   public static final String[] IMAGE_SUFFIXES = { ".png", ".jpg", ".jpeg", ".gif", ".bmp", ".tif", ".tiff" };
+
+   // Workers.
+   public int WORKERS = Runtime.getRuntime().availableProcessors();
+
+   // Result sink for all images, or null for a coordinates file per image.
+   public ResultSink sink = null;
+
+   // Result cache, or null for none.
+   public ResultCache cache = null;
+
+   // Metrics summary output, or null for none.
+   public PrintStream metricsOut = null;
+
+   // Progress output, or null for none.
+   public PrintStream progress = System.out;
+
+   // Parameters for the image locators.
+   private CellLocator parameters;
+
+   /**
+    * Constructor.
+    */
+   public BatchLocator(CellLocator parameters, int workers)
+   {
+      this.parameters = parameters;
+      WORKERS         = workers;
+   }
+
+
+   /**
+    * List the images of a directory, or the files named one per line
+    * in a list file.
+    */
+   public static ArrayList<File> listImages(File path) throws IOException
+   {
+      ArrayList<File> files = new ArrayList<File>();
+
+      if (path.isDirectory())
+      {
+         File[] entries = path.listFiles();
+         if (entries == null)
+         {
+            throw new IOException("Cannot list " + path);
+         }
+         Arrays.sort(entries);
+         for (File entry : entries)
+         {
+            String name = entry.getName().toLowerCase();
+            if (!entry.isFile() || name.endsWith("_output.png"))
+            {
+               continue;
+            }
+            for (String suffix : IMAGE_SUFFIXES)
+            {
+               if (name.endsWith(suffix))
+               {
+                  files.add(entry);
+                  break;
+               }
+            }
+         }
+      }
+      else
+      {
+         BufferedReader reader = new BufferedReader(new FileReader(path));
+         try
+         {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+               line = line.trim();
+               if (!line.isEmpty() && !line.startsWith("#"))
+               {
+                  files.add(new File(line));
+               }
+            }
+         }
+         finally
+         {
+            reader.close();
+         }
+      }
+      return(files);
+   }
+
+
+   /**
+    * Process images. Returns the number that failed.
+    */
+   public int run(ArrayList<File> files)
+   {
+      ExecutorService               workers = Executors.newFixedThreadPool(WORKERS);
+      ArrayList<Future<Boolean> >   results = new ArrayList<Future<Boolean> >();
+      int failed = 0;
+
+      for (final File file : files)
+      {
+         results.add(workers.submit(new Callable<Boolean>()
+                                    {
+                                       @Override
+                                       public Boolean call() throws Exception
+                                       {
+                                          return(process(file));
+                                       }
+                                    }
+                                    ));
+      }
+      workers.shutdown();
+      for (int i = 0; i < files.size(); i++)
+      {
+         File file = files.get(i);
+         try
+         {
+            if (results.get(i).get())
+            {
+               if (progress != null)
+               {
+                  progress.println("done: " + file);
+               }
+            }
+            else
+            {
+               System.err.println("failed: " + file + ": aborted");
+               failed++;
+            }
+         }
+         catch (ExecutionException e) {
+            System.err.println("failed: " + file + ": " + e.getCause());
+            failed++;
+         }
+         catch (InterruptedException e) {
+            System.err.println("failed: " + file + ": interrupted");
+            failed++;
+         }
+      }
+      if (progress != null)
+      {
+         progress.println("images=" + files.size() + " failed=" + failed);
+      }
+      return(failed);
+   }
+
+
+   /**
+    * Process an image. Returns false if aborted.
+    */
+   public boolean process(File file) throws IOException
+   {
+      CellLocator locator = new CellLocator(parameters);
+
+      locator.progress = null;
+      locator.metrics.register(file.getPath());
+      try
+      {
+         if (!process(file, locator))
+         {
+            return(false);
+         }
+      }
+      finally
+      {
+         locator.metrics.unregister();
+      }
+      if (metricsOut != null)
+      {
+         metricsOut.println(locator.metrics.getSummary(file.getPath()));
+      }
+      return(true);
+   }
+
+
+   // A milestone listener writing the coordinates of an image at each
+   // milestone to the sink, tagged @<iterations>, or to
+   // <name>_coordinates_<iterations>.txt.
+   private CellLocator.MilestoneListener milestoneWriter(final File file, final File dir, final String name)
+   {
+      return(new CellLocator.MilestoneListener()
+             {
+                @Override
+                public void milestone(int iterations, int[] cells, int[] inclusions)
+                {
+                   try
+                   {
+                      if (sink != null)
+                      {
+                         sink.write(file.getPath() + "@" + iterations, cells, inclusions);
+                      }
+                      else
+                      {
+                         PrintStream out = new PrintStream(new File(dir, name + "_coordinates_" + iterations + ".txt"));
+                         try
+                         {
+                            CellLocator.printCoordinates(cells, inclusions, out);
+                         }
+                         finally
+                         {
+                            out.close();
+                         }
+                      }
+                   }
+                   catch (IOException e) {
+                      System.err.println("Cannot write the milestone " + iterations + " of " + file + ": " + e.getMessage());
+                   }
+                }
+             }
+             );
+   }
+
+
+   // Process an image with a locator.
+   private boolean process(File file, CellLocator locator) throws IOException
+   {
+      locator.metrics.begin(Metrics.LOAD);
+      BufferedImage image = ImageIO.read(file);
+      locator.metrics.end(Metrics.LOAD);
+
+      if ((image == null) || (image.getWidth() <= 0) || (image.getHeight() <= 0))
+      {
+         throw new IOException("File does not contain a recognized image format");
+      }
+      locator.setImage(image);
+      String name = file.getName();
+      int    i    = name.lastIndexOf('.');
+      if (i != -1)
+      {
+         name = name.substring(0, i);
+      }
+      File              dir        = file.getAbsoluteFile().getParentFile();
+      File              outputFile = new File(dir, name + "_output.png");
+      String            key        = null;
+      ResultCache.Entry entry      = null;
+      if (cache != null)
+      {
+         key = locator.getResultKey();
+         if (locator.MILESTONES == null)
+         {
+            entry = cache.get(key, true);
+         }
+      }
+      int[] cells;
+      int[] inclusions;
+      if (entry != null)
+      {
+         cells      = entry.cells;
+         inclusions = entry.inclusions;
+      }
+      else
+      {
+         if (locator.MILESTONES != null)
+         {
+            locator.milestoneListener = milestoneWriter(file, dir, name);
+         }
+         locator.initPixels();
+         if (!locator.locateCells())
+         {
+            return(false);
+         }
+         locator.finalizeImage();
+         cells      = locator.getCellCoordinates();
+         inclusions = locator.getInclusionCoordinates();
+      }
+      if (sink != null)
+      {
+         sink.write(file.getPath(), cells, inclusions);
+      }
+      else
+      {
+         PrintStream out = new PrintStream(new File(dir, name + "_coordinates.txt"));
+         try
+         {
+            CellLocator.printCoordinates(cells, inclusions, out);
+         }
+         finally
+         {
+            out.close();
+         }
+      }
+      if (entry != null)
+      {
+         Files.copy(entry.image.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      else
+      {
+         ImageIO.write(locator.currentImage, "png", outputFile);
+         if (cache != null)
+         {
+            try
+            {
+               cache.put(key, cells, inclusions, outputFile);
+            }
+            catch (IOException e) {
+               System.err.println("Cannot cache the results of " + file + ": " + e.getMessage());
+            }
+         }
+      }
+      return(true);
+   }
+}
@@ -0,0 +1,186 @@
+// Particle cell list.
+
+import java.util.Arrays;
+
+/**
+ * Spatial index of particles by square cells of cellSize pixels.
+ * The particle indices are counting-sorted by cell into one array, with
+ * cells numbered column by column (cell = column * rows + row), so a column
+ * of neighboring cells is one contiguous run. The sort is stable, so the
+ * particles in a cell are in particle order.
+ */
+public class CellList
+{
+   // Cell dimensions.
+   public int cellSize;
+   public int columns;
+   public int rows;
+
+   // Particles of cell c are index[start[c]] to index[start[c + 1] - 1].
+   public int[] start;
+   public int[] index;
+
+   // Cell of each particle.
+   public int[] cell;
+
+   // Mass and mass-weighted position sums of each cell, if computed.
+   public double[] sumMass = null;
+   public double[] sumX    = null;
+   public double[] sumY    = null;
+
+   // Float positions and masses in index order, and the lane of each
+   // particle, if gathered.
+   public float[] laneX    = null;
+   public float[] laneY    = null;
+   public float[] laneMass = null;
+   public int[]   lane     = null;
+
+   /**
+    * Constructor.
+    */
+   public CellList(int width, int height, int cellSize, int capacity)
+   {
+      this.cellSize = cellSize;
+      columns       = (width + cellSize - 1) / cellSize;
+      rows          = (height + cellSize - 1) / cellSize;
+      start         = new int[columns * rows + 1];
+      index         = new int[capacity];
+      cell          = new int[capacity];
+   }
+
+
+   /**
+    * Reuse for another grid and capacity, keeping the arrays that are
+    * large enough.
+    */
+   public void reset(int width, int height, int cellSize, int capacity)
+   {
+      this.cellSize = cellSize;
+      columns       = (width + cellSize - 1) / cellSize;
+      rows          = (height + cellSize - 1) / cellSize;
+      if (start.length < columns * rows + 1)
+      {
+         start = new int[columns * rows + 1];
+      }
+      if (index.length < capacity)
+      {
+         index = new int[capacity];
+         cell  = new int[capacity];
+      }
+      if ((sumX != null) && (sumX.length < columns * rows))
+      {
+         sumMass = null;
+         sumX    = null;
+         sumY    = null;
+      }
+   }
+
+
+   /**
+    * Assign particles from (inclusive) to (exclusive) to the cells of their
+    * current positions. Particles may be assigned concurrently.
+    */
+   public void assign(Particles particles, int from, int to)
+   {
+      for (int p = from; p < to; p++)
+      {
+         cell[p] = ((int)particles.x[p] / cellSize) * rows + (int)particles.y[p] / cellSize;
+      }
+   }
+
+
+   /**
+    * Sort the assigned particles by cell.
+    */
+   public void build(int count)
+   {
+      int cells = columns * rows;
+
+      Arrays.fill(start, 0, cells + 1, 0);
+      for (int p = 0; p < count; p++)
+      {
+         start[cell[p]]++;
+      }
+      for (int c = 1; c < cells; c++)
+      {
+         start[c] += start[c - 1];
+      }
+      start[cells] = count;
+      for (int p = count - 1; p >= 0; p--)
+      {
+         index[--start[cell[p]]] = p;
+      }
+   }
+
+
+   /**
+    * Sum the particle masses and positions of each cell, giving the cell
+    * masses and centroids used by the far-field approximation.
+    */
+   public void sum(Particles particles)
+   {
+      int cells = columns * rows;
+
+      if (sumX == null)
+      {
+         sumMass = new double[cells];
+         sumX    = new double[cells];
+         sumY    = new double[cells];
+      }
+      for (int c = 0; c < cells; c++)
+      {
+         double sm = 0.0;
+         double sx = 0.0;
+         double sy = 0.0;
+         for (int k = start[c]; k < start[c + 1]; k++)
+         {
+            int    p = index[k];
+            double m = 1.0;
+            if (particles.mass != null)
+            {
+               m = particles.mass[p];
+            }
+            sm += m;
+            sx += particles.x[p] * m;
+            sy += particles.y[p] * m;
+         }
+         sumMass[c] = sm;
+         sumX[c]    = sx;
+         sumY[c]    = sy;
+      }
+   }
+
+
+   /**
+    * Gather the particle positions and masses into float lanes in index
+    * order, so the particles of a column of cells are contiguous lanes.
+    */
+   public void gather(Particles particles, int count)
+   {
+      if ((laneX == null) || (laneX.length < index.length))
+      {
+         laneX = new float[index.length];
+         laneY = new float[index.length];
+         lane  = new int[index.length];
+      }
+      if (particles.mass == null)
+      {
+         laneMass = null;
+      }
+      else if ((laneMass == null) || (laneMass.length < index.length))
+      {
+         laneMass = new float[index.length];
+      }
+      for (int k = 0; k < count; k++)
+      {
+         int p = index[k];
+         laneX[k] = (float)particles.x[p];
+         laneY[k] = (float)particles.y[p];
+         if (laneMass != null)
+         {
+            laneMass[k] = (float)particles.mass[p];
+         }
+         lane[p] = k;
+      }
+   }
+}
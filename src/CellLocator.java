@@ -0,0 +1,1608 @@
+// Cell and inclusion locator.
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Locates cells (blue blobs) and inclusions (red dots) in an image,
+ * independently of any display. Each instance holds the state of one image.
+ */
+public class CellLocator
+{
+   // Engine version, changed when the results of the same parameters change.
+   public static final int ENGINE_VERSION = 1;
+
+   // Cell locating.
+   public int    ITERATIONS = 1000;
+   public int    PIXEL_NEIGHBORHOOD_RADIUS = 10;
+   public double PIXEL_MOVEMENT            = 0.1;
+
+   // Noise removal: passes removing blue pixels with fewer than
+   // NOISE_NEIGHBORS blue neighbors.
+   public int NOISE_PASSES    = 10;
+   public int NOISE_NEIGHBORS = 4;
+
+   // Far-field approximation: a cell of FAR_FIELD_CELL_SIZE pixels inside
+   // the neighborhood that subtends an angle below FAR_FIELD_THETA acts as
+   // one particle of its total mass at its centroid. A theta of 0 is exact,
+   // and the theta must be at most MAX_FAR_FIELD_THETA.
+   // A cell size of 0 uses PIXEL_NEIGHBORHOOD_RADIUS / 5, at least 2.
+   public double              FAR_FIELD_THETA     = 0.0;
+   public int                 FAR_FIELD_CELL_SIZE = 0;
+   public static final double MAX_FAR_FIELD_THETA = 1.0;
+
+   // Convergence: stop once no particle has changed pixel for
+   // CONVERGENCE_WINDOW iterations in a row, and for at least the
+   // iterations a particle stepping PIXEL_MOVEMENT in one direction takes
+   // to cross a pixel diagonally. The cells are found from the particle
+   // pixels, so they are those of a full run unless a particle would still
+   // leave its pixel later. A window of 0 always runs ITERATIONS
+   // iterations.
+   public int  CONVERGENCE_WINDOW = 0;
+   private int stillIterations;
+
+   // Checkpoints: every CHECKPOINT_INTERVAL iterations at image resolution,
+   // and when a run ends or is aborted, the particle positions are written
+   // to CHECKPOINT_FILE in the background. With RESUME, a run continues
+   // from a valid checkpoint of the same image and parameters.
+   public File               CHECKPOINT_FILE     = null;
+   public int                CHECKPOINT_INTERVAL = 50;
+   public boolean            RESUME              = false;
+   private Checkpoint.Writer checkpointWriter    = null;
+   private long              imageHash;
+   private int               iterationBase;
+   private int               fineIterations;
+
+   // Iteration milestones: ascending iteration counts at image resolution
+   // at which the coordinates a run of that many iterations would give are
+   // passed to the milestone listener, without changing the run. A run
+   // that converges early passes its final coordinates for the milestones
+   // after it stops. A pyramid run counts the iterations of its image
+   // resolution level, and passes its final coordinates for the milestones
+   // after that level's refinement. Milestones beyond ITERATIONS are
+   // ignored.
+   public int[]             MILESTONES        = null;
+   public MilestoneListener milestoneListener = null;
+   private int              nextMilestone;
+
+   /**
+    * Receives the cell and inclusion coordinates, as x, y pairs, at an
+    * iteration milestone.
+    */
+   public interface MilestoneListener
+   {
+      void milestone(int iterations, int[] cells, int[] inclusions);
+   }
+
+   // Metrics, and the particles that moved to another pixel this iteration.
+   public Metrics metrics = new Metrics();
+   private long   iterationMoved;
+
+   // Active set: a particle that has stayed within SLEEP_DISTANCE pixels of
+   // a position for SLEEP_ITERATIONS iterations sleeps, keeping its place
+   // without computing its force, while no particle near it is moving. It
+   // wakes when a moving particle comes within the neighborhood radius.
+   // Moving particles are marked on a grid of a quarter of the radius,
+   // which is then dilated by the radius, along the columns and then the
+   // rows, into the cells near one. Sleeping changes the results: a
+   // cluster drifting by less than SLEEP_DISTANCE pixels per SLEEP_ITERATIONS
+   // iterations freezes. A checkpoint keeps the active set.
+   // 0 iterations always updates every particle.
+   public int        SLEEP_ITERATIONS = 0;
+   public double     SLEEP_DISTANCE   = 0.5;
+   private boolean[] sleeping         = null;
+   private int[]     quiet;
+   private double[]  quietX;
+   private double[]  quietY;
+   private boolean[] moving;
+   private boolean[] movingColumnsNear;
+   private boolean[] movingNear;
+   private int       movingSize;
+   private int       movingColumns;
+   private int       movingRows;
+
+   // Active set of a resumed checkpoint, for the next iterations.
+   private Checkpoint resumedSleep = null;
+
+   // Coarse-to-fine pyramid: levels of halved resolution above the image,
+   // each finer level refined for PYRAMID_ITERATIONS iterations. 0 levels
+   // is off. The cells are approximate: they are not those of a full run.
+   public int  PYRAMID_LEVELS     = 0;
+   public int  PYRAMID_ITERATIONS = 50;
+   private int pyramidLevel       = 0;
+
+   // Particle grid: the image, or a pyramid level, the neighborhood radius
+   // in its pixels, and the image pixels per grid pixel.
+   private int    gridWidth;
+   private int    gridHeight;
+   private int    gridRadius;
+   private double gridScale;
+
+   // Particle update threads.
+   public int                THREADS        = Runtime.getRuntime().availableProcessors();
+   public static final int   PARTICLE_GRAIN = 256;
+   private ForkJoinPool      pool           = null;
+
+   // Force kernel: "double" sums the neighbors in double precision from the
+   // particle positions; "float" and "vector" sum them in float precision
+   // from lanes gathered in cell list order, one at a time or with the
+   // Vector API. The lanes are a float copy kept besides the double
+   // positions, so the float kernels stream half the bytes through the
+   // force loop but use more memory, not less. The vector kernel falls back
+   // to the float kernel where the Vector API is not available.
+   public static final String[] FORCE_KERNELS = { "double", "float", "vector" };
+   public String                FORCE_KERNEL  = "double";
+   private ForceKernel          kernel        = null;
+   private static ForceKernel   vectorKernel  = null;
+
+   // Red color?
+   public static boolean isRed(int color)
+   {
+      if ((color & 0x00FF0000) > 0)
+      {
+         return(true);
+      }
+      else
+      {
+         return(false);
+      }
+   }
+
+
+   // Green color?
+   public static boolean isGreen(int color)
+   {
+      if ((color & 0x0000FF00) > 0)
+      {
+         return(true);
+      }
+      else
+      {
+         return(false);
+      }
+   }
+
+
+   // Blue (light blue)?
+   public static boolean isBlue(int color)
+   {
+      if ((color & 0x000000FF) >= 0x20)
+      {
+         return(true);
+      }
+      else
+      {
+         return(false);
+      }
+   }
+
+
+   // Black (dark blue)?
+   public static boolean isBlack(int color)
+   {
+      color = color & 0x000000FF;
+      if ((color >= 0) && (color < 0x20))
+      {
+         return(true);
+      }
+      else
+      {
+         return(false);
+      }
+   }
+
+
+   // Pixel tracking.
+   // Particles holds the blue pixels and PixelTracker indexes them by
+   // cells of CELL_SIZE pixels. A cell size of 1 visits neighbors in pixel
+   // order; larger cells, up to PIXEL_NEIGHBORHOOD_RADIUS, touch fewer runs.
+   public Particles Particles    = null;
+   public CellList  PixelTracker = null;
+   public int       CELL_SIZE    = 1;
+
+   // Image.
+   public BufferedImage currentImage = null;
+   public int           imageWidth   = -1;
+   public int           imageHeight  = -1;
+
+   // Pixels of the image, y * imageWidth + x, as its int raster, and the
+   // color bits the raster holds: TYPE_INT_RGB pixels have no alpha.
+   private int[] raster     = null;
+   private int   rasterBits = 0;
+
+   // Abort request, checked while locating cells.
+   public volatile boolean abort = false;
+
+   // Called after each iteration at image resolution, if not null.
+   public Runnable iterationListener = null;
+
+   // Progress messages, or null for none.
+   public PrintStream progress = System.out;
+
+   // Buffers and pool reused from earlier images, or null to allocate new
+   // ones.
+   public LocatorBuffers buffers = null;
+
+   /**
+    * Constructor.
+    */
+   public CellLocator()
+   {
+   }
+
+
+   /**
+    * Constructor with the parameters of another locator.
+    */
+   public CellLocator(CellLocator parameters)
+   {
+      ITERATIONS                = parameters.ITERATIONS;
+      PIXEL_NEIGHBORHOOD_RADIUS = parameters.PIXEL_NEIGHBORHOOD_RADIUS;
+      PIXEL_MOVEMENT            = parameters.PIXEL_MOVEMENT;
+      NOISE_PASSES              = parameters.NOISE_PASSES;
+      NOISE_NEIGHBORS           = parameters.NOISE_NEIGHBORS;
+      FAR_FIELD_THETA           = parameters.FAR_FIELD_THETA;
+      FAR_FIELD_CELL_SIZE       = parameters.FAR_FIELD_CELL_SIZE;
+      CONVERGENCE_WINDOW        = parameters.CONVERGENCE_WINDOW;
+      PYRAMID_LEVELS            = parameters.PYRAMID_LEVELS;
+      PYRAMID_ITERATIONS        = parameters.PYRAMID_ITERATIONS;
+      SLEEP_ITERATIONS          = parameters.SLEEP_ITERATIONS;
+      SLEEP_DISTANCE            = parameters.SLEEP_DISTANCE;
+      THREADS                   = parameters.THREADS;
+      CELL_SIZE                 = parameters.CELL_SIZE;
+      FORCE_KERNEL              = parameters.FORCE_KERNEL;
+      MILESTONES                = parameters.MILESTONES;
+      progress                  = parameters.progress;
+   }
+
+
+   /**
+    * Set the image.
+    */
+   public void setImage(BufferedImage image)
+   {
+      currentImage = toIntImage(image);
+      imageWidth   = image.getWidth();
+      imageHeight  = image.getHeight();
+      raster       = ((DataBufferInt)currentImage.getRaster().getDataBuffer()).getData();
+      rasterBits   = currentImage.getColorModel().hasAlpha() ? 0xFFFFFFFF : 0x00FFFFFF;
+      Particles    = null;
+      PixelTracker = null;
+   }
+
+
+   /**
+    * An image whose int raster holds its pixels in row order, with no
+    * padding: the image itself if it is TYPE_INT_RGB or TYPE_INT_ARGB laid
+    * out so, or else a TYPE_INT_ARGB copy if it has alpha and a TYPE_INT_RGB
+    * copy if not. The locator works on the raster instead of on getRGB()
+    * and setRGB(), which convert through the color model at each pixel.
+    */
+   public static BufferedImage toIntImage(BufferedImage image)
+   {
+      int            width  = image.getWidth();
+      int            height = image.getHeight();
+      WritableRaster r      = image.getRaster();
+
+      if (((image.getType() == BufferedImage.TYPE_INT_RGB) || (image.getType() == BufferedImage.TYPE_INT_ARGB)) &&
+          (r.getSampleModel() instanceof SinglePixelPackedSampleModel) &&
+          (((SinglePixelPackedSampleModel)r.getSampleModel()).getScanlineStride() == width) &&
+          (r.getSampleModelTranslateX() == 0) && (r.getSampleModelTranslateY() == 0) &&
+          (r.getDataBuffer().getOffset() == 0))
+      {
+         return(image);
+      }
+      boolean       alpha  = image.getColorModel().hasAlpha();
+      BufferedImage result = new BufferedImage(width, height,
+                                               alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+      int[]         data   = ((DataBufferInt)result.getRaster().getDataBuffer()).getData();
+      for (int y = 0; y < height; y++)
+      {
+         image.getRGB(0, y, width, 1, data, y * width, width);
+      }
+      if (!alpha)
+      {
+         for (int i = 0; i < data.length; i++)
+         {
+            data[i] &= 0x00FFFFFF;
+         }
+      }
+      return(result);
+   }
+
+
+   // New or reused particles.
+   private Particles newParticles(int capacity)
+   {
+      if (buffers == null)
+      {
+         return(new Particles(capacity));
+      }
+      else
+      {
+         return(buffers.getParticles(capacity));
+      }
+   }
+
+
+   // New or reused cell list of the image.
+   private CellList newCellList(int capacity)
+   {
+      if (buffers == null)
+      {
+         return(new CellList(imageWidth, imageHeight, trackerCellSize(), capacity));
+      }
+      else
+      {
+         return(buffers.getCellList(imageWidth, imageHeight, trackerCellSize(), capacity));
+      }
+   }
+
+
+   // New or reused pool of THREADS workers. A new pool is shut down by
+   // releasePool(), and a reused one kept.
+   private ForkJoinPool newPool()
+   {
+      if (buffers == null)
+      {
+         return(metrics.newPool(THREADS));
+      }
+      else
+      {
+         return(buffers.getPool(THREADS, metrics));
+      }
+   }
+
+
+   // Release a pool from newPool().
+   private void releasePool(ForkJoinPool pool)
+   {
+      if ((pool != null) && (buffers == null))
+      {
+         pool.shutdown();
+      }
+   }
+
+
+   // New or reused cleared mask of the image.
+   private boolean[] newMask()
+   {
+      if (buffers == null)
+      {
+         return(new boolean[imageWidth * imageHeight]);
+      }
+      else
+      {
+         return(buffers.getMask(imageWidth * imageHeight));
+      }
+   }
+
+
+   /**
+    * Initialize pixels.
+    */
+   public void initPixels()
+   {
+      if (currentImage != null)
+      {
+         metrics.begin(Metrics.NOISE);
+         int[] pixels = raster;
+         int   alpha  = ~rasterBits;
+         imageHash = 0xCBF29CE484222325L;
+         for (int i = 0; i < pixels.length; i++)
+         {
+            imageHash = (imageHash ^ ((pixels[i] | alpha) & 0xFFFFFFFFL)) * 0x100000001B3L;
+         }
+
+         // Remove noisy blue pixels.
+         ForkJoinPool filterPool = null;
+         if (THREADS > 1)
+         {
+            filterPool = newPool();
+         }
+         NoiseFilter filter;
+         try
+         {
+            if (buffers == null)
+            {
+               filter = new NoiseFilter(pixels, imageWidth, imageHeight, filterPool);
+            }
+            else
+            {
+               filter = buffers.getNoiseFilter(pixels, imageWidth, imageHeight, filterPool);
+            }
+            filter.filter(NOISE_PASSES, NOISE_NEIGHBORS);
+         }
+         finally
+         {
+            releasePool(filterPool);
+         }
+         int black = Color.BLACK.getRGB() & rasterBits;
+         for (int y = 0; y < imageHeight; y++)
+         {
+            for (int x = 0; x < imageWidth; x++)
+            {
+               if (isBlue(pixels[y * imageWidth + x]) && !filter.isBlue(x, y))
+               {
+                  pixels[y * imageWidth + x] = black;
+               }
+            }
+         }
+
+         metrics.end(Metrics.NOISE);
+
+         // Create particles for the remaining blue pixels. They are
+         // numbered in column order, as the original pixel scan did: the
+         // numbering fixes the order of the force sums and so the exact
+         // positions, and reading the raster a column at a time costs less
+         // than scattering the writes over the six particle arrays.
+         metrics.begin(Metrics.PARTICLES);
+         int count = 0;
+         for (int i = 0; i < pixels.length; i++)
+         {
+            if (isBlue(pixels[i]))
+            {
+               count++;
+            }
+         }
+         Particles = newParticles(count);
+         for (int x = 0; x < imageWidth; x++)
+         {
+            for (int y = 0; y < imageHeight; y++)
+            {
+               int rgb = pixels[y * imageWidth + x];
+               if (isBlue(rgb))
+               {
+                  Particles.add(x, y, imageWidth, rgb | alpha);
+               }
+            }
+         }
+         initTracker();
+         metrics.end(Metrics.PARTICLES);
+      }
+   }
+
+
+   /**
+    * Initialize pixels from a locator whose pixels are initialized, sharing
+    * its cleaned image and with a copy of its particles, so an image is
+    * decoded and cleaned once for locators of several parameters. The
+    * shared image must not be written, so take the inclusions with
+    * getInclusionComponents(true) instead of finalizing the image. The
+    * noise removal parameters are those of the source.
+    */
+   public void initPixels(CellLocator source)
+   {
+      metrics.begin(Metrics.PARTICLES);
+      setImage(source.currentImage);
+      imageHash = source.imageHash;
+      Particles = newParticles(source.Particles.count);
+      Particles.copy(source.Particles);
+      initTracker();
+      metrics.end(Metrics.PARTICLES);
+   }
+
+
+   // Index the particles on the image grid.
+   private void initTracker()
+   {
+      int count = Particles.count;
+
+      setGrid(imageWidth, imageHeight, PIXEL_NEIGHBORHOOD_RADIUS, 1);
+      PixelTracker = newCellList(count);
+      PixelTracker.assign(Particles, 0, count);
+      PixelTracker.build(count);
+      if (FAR_FIELD_THETA > 0.0)
+      {
+         PixelTracker.sum(Particles);
+      }
+      metrics.addParticles(count);
+   }
+
+
+   /**
+    * Locate cells.
+    * Returns false if the run is aborted.
+    */
+   public boolean locateCells()
+   {
+      if (THREADS > 1)
+      {
+         pool = newPool();
+      }
+      kernel         = getForceKernel(FORCE_KERNEL);
+      iterationBase  = 0;
+      fineIterations = -1;
+      nextMilestone  = 0;
+      resumedSleep   = null;
+      if (CHECKPOINT_FILE != null)
+      {
+         checkpointWriter = new Checkpoint.Writer(CHECKPOINT_FILE);
+      }
+      try
+      {
+         if (RESUME && (CHECKPOINT_FILE != null))
+         {
+            Checkpoint checkpoint = Checkpoint.read(CHECKPOINT_FILE);
+            if (resume(checkpoint))
+            {
+               if (progress != null)
+               {
+                  progress.println("resumed iteration=" + checkpoint.iteration);
+               }
+               int iterations = ITERATIONS;
+               if (PYRAMID_LEVELS > 0)
+               {
+                  iterations = levelIterations(0);
+               }
+               iterationBase = checkpoint.iteration;
+               return(finishMilestones(iterate(Math.max(iterations - checkpoint.iteration, 0),
+                                               CONVERGENCE_WINDOW), ITERATIONS));
+            }
+            else if (progress != null)
+            {
+               progress.println("no valid checkpoint to resume in " + CHECKPOINT_FILE);
+            }
+         }
+         if (PYRAMID_LEVELS > 0)
+         {
+            return(finishMilestones(locatePyramid(), ITERATIONS));
+         }
+         else
+         {
+            return(finishMilestones(iterate(ITERATIONS, CONVERGENCE_WINDOW), ITERATIONS));
+         }
+      }
+      finally
+      {
+         releasePool(pool);
+         pool = null;
+         if (checkpointWriter != null)
+         {
+            Checkpoint checkpoint = null;
+            if (fineIterations >= 0)
+            {
+               checkpoint = getCheckpoint();
+            }
+            checkpointWriter.finish(checkpoint);
+            checkpointWriter = null;
+         }
+         sleeping = moving = movingColumnsNear = movingNear = null;
+         quiet    = null;
+         quietX   = quietY = null;
+      }
+   }
+
+
+   /**
+    * Parameters that a checkpoint must match to be resumed.
+    */
+   public String getCheckpointParameters()
+   {
+      return("radius=" + PIXEL_NEIGHBORHOOD_RADIUS + " movement=" + PIXEL_MOVEMENT +
+             " noise=" + NOISE_PASSES + "/" + NOISE_NEIGHBORS +
+             " farfield=" + FAR_FIELD_THETA + "/" + FAR_FIELD_CELL_SIZE +
+             " pyramid=" + PYRAMID_LEVELS + "/" + PYRAMID_ITERATIONS +
+             " sleep=" + SLEEP_ITERATIONS + "/" + SLEEP_DISTANCE);
+   }
+
+
+   /**
+    * The engine version and all the parameters the results depend on.
+    */
+   public String getResultParameters()
+   {
+      String kernel = FORCE_KERNEL;
+
+      if (!kernel.equals("double"))
+      {
+         kernel = getForceKernel(FORCE_KERNEL).getClass().getName();
+      }
+      return("version=" + ENGINE_VERSION + " iterations=" + ITERATIONS + " " + getCheckpointParameters() +
+             " converge=" + CONVERGENCE_WINDOW +
+             " cellsize=" + CELL_SIZE + " kernel=" + kernel);
+   }
+
+
+   /**
+    * Content key of the results of the image: a SHA-256, in hexadecimal,
+    * of the result parameters, the image size and its decoded pixels.
+    * Call before initPixels(), which removes the noise from the pixels.
+    */
+   public String getResultKey()
+   {
+      MessageDigest digest;
+
+      try
+      {
+         digest = MessageDigest.getInstance("SHA-256");
+      }
+      catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e);
+      }
+      digest.update(getResultParameters().getBytes(StandardCharsets.UTF_8));
+      ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+      buffer.putInt(imageWidth);
+      buffer.putInt(imageHeight);
+      int alpha = ~rasterBits;
+      for (int i = 0; i < raster.length; i++)
+      {
+         if (buffer.remaining() < 4)
+         {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+         }
+         buffer.putInt(raster[i] | alpha);
+      }
+      buffer.flip();
+      digest.update(buffer);
+      StringBuilder key = new StringBuilder();
+      for (byte b : digest.digest())
+      {
+         key.append(String.format("%02x", b & 0xFF));
+      }
+      return(key.toString());
+   }
+
+
+   /**
+    * Checkpoint of the particle positions at image resolution.
+    */
+   public Checkpoint getCheckpoint()
+   {
+      Checkpoint checkpoint = new Checkpoint();
+
+      checkpoint.parameters = getCheckpointParameters();
+      checkpoint.imageHash  = imageHash;
+      checkpoint.width      = imageWidth;
+      checkpoint.height     = imageHeight;
+      checkpoint.iteration  = fineIterations;
+      checkpoint.count      = Particles.count;
+      checkpoint.x          = Arrays.copyOf(Particles.x, Particles.count);
+      checkpoint.y          = Arrays.copyOf(Particles.y, Particles.count);
+      if (sleeping != null)
+      {
+         checkpoint.sleeping   = Arrays.copyOf(sleeping, Particles.count);
+         checkpoint.quiet      = Arrays.copyOf(quiet, Particles.count);
+         checkpoint.quietX     = Arrays.copyOf(quietX, Particles.count);
+         checkpoint.quietY     = Arrays.copyOf(quietY, Particles.count);
+         checkpoint.movingNear = Arrays.copyOf(movingNear, movingNear.length);
+      }
+      return(checkpoint);
+   }
+
+
+   // Restore the particle positions of a checkpoint of this image and
+   // parameters. Returns false if it does not match.
+   private boolean resume(Checkpoint checkpoint)
+   {
+      Particles particles = Particles;
+
+      if ((checkpoint == null) || (particles == null) ||
+          !checkpoint.parameters.equals(getCheckpointParameters()) ||
+          (checkpoint.imageHash != imageHash) || (checkpoint.width != imageWidth) ||
+          (checkpoint.height != imageHeight) || (checkpoint.count != particles.count) ||
+          (checkpoint.iteration < 0))
+      {
+         return(false);
+      }
+      System.arraycopy(checkpoint.x, 0, particles.x, 0, particles.count);
+      System.arraycopy(checkpoint.y, 0, particles.y, 0, particles.count);
+      System.arraycopy(checkpoint.x, 0, particles.nextX, 0, particles.count);
+      System.arraycopy(checkpoint.y, 0, particles.nextY, 0, particles.count);
+      setGrid(imageWidth, imageHeight, PIXEL_NEIGHBORHOOD_RADIUS, 1);
+      PixelTracker.assign(particles, 0, particles.count);
+      PixelTracker.build(particles.count);
+      if (FAR_FIELD_THETA > 0.0)
+      {
+         PixelTracker.sum(particles);
+      }
+      fineIterations = checkpoint.iteration;
+      resumedSleep   = checkpoint;
+      return(true);
+   }
+
+
+   /**
+    * Run particle iterations on the current particle grid, stopping early
+    * once no particle has changed pixel for window iterations if the window
+    * is not 0. Returns false if the run is aborted.
+    */
+   private boolean iterate(int iterations, int window)
+   {
+      stillIterations = 0;
+      if (window > 0)
+      {
+         window = Math.max(window, (int)Math.ceil(Math.sqrt(2.0) / PIXEL_MOVEMENT) + 1);
+      }
+      if (pyramidLevel == 0)
+      {
+         fineIterations = iterationBase;
+         passMilestones(fineIterations);
+      }
+      sleeping = moving = movingColumnsNear = movingNear = null;
+      quiet    = null;
+      quietX   = quietY = null;
+      if (SLEEP_ITERATIONS > 0)
+      {
+         int count = Particles.count;
+         movingSize        = Math.max(gridRadius / 4, 1);
+         movingColumns     = (gridWidth + movingSize - 1) / movingSize;
+         movingRows        = (gridHeight + movingSize - 1) / movingSize;
+         moving            = new boolean[movingColumns * movingRows];
+         movingColumnsNear = new boolean[movingColumns * movingRows];
+         if ((resumedSleep != null) && (resumedSleep.sleeping != null) &&
+             (resumedSleep.movingNear.length == moving.length))
+         {
+            sleeping   = resumedSleep.sleeping;
+            quiet      = resumedSleep.quiet;
+            quietX     = resumedSleep.quietX;
+            quietY     = resumedSleep.quietY;
+            movingNear = resumedSleep.movingNear;
+         }
+         else
+         {
+            sleeping   = new boolean[count];
+            quiet      = new int[count];
+            quietX     = Arrays.copyOf(Particles.x, count);
+            quietY     = Arrays.copyOf(Particles.y, count);
+            movingNear = new boolean[movingColumns * movingRows];
+            Arrays.fill(movingNear, true);
+         }
+      }
+      resumedSleep = null;
+      if (kernel != null)
+      {
+         PixelTracker.gather(Particles, Particles.count);
+      }
+      for (int i = 0; i < iterations; i++)
+      {
+         if (progress != null)
+         {
+            progress.println("iteration=" + (iterationBase + i + 1) + "/" + (iterationBase + iterations));
+         }
+         iterationMoved = 0L;
+         metrics.begin(Metrics.FORCE);
+         updateParticles(false);
+         metrics.end(Metrics.FORCE);
+         if (abort)
+         {
+            return(false);
+         }
+         metrics.begin(Metrics.COMMIT);
+         if (sleeping != null)
+         {
+            Arrays.fill(moving, false);
+         }
+         updateParticles(true);
+         PixelTracker.build(Particles.count);
+         if (FAR_FIELD_THETA > 0.0)
+         {
+            PixelTracker.sum(Particles);
+         }
+         if (kernel != null)
+         {
+            PixelTracker.gather(Particles, Particles.count);
+         }
+         if (sleeping != null)
+         {
+            dilateMoving();
+         }
+         metrics.end(Metrics.COMMIT);
+         metrics.iteration(iterationMoved);
+         if (pyramidLevel == 0)
+         {
+            fineIterations = iterationBase + i + 1;
+            passMilestones(fineIterations);
+            if ((checkpointWriter != null) && (CHECKPOINT_INTERVAL > 0) &&
+                (fineIterations % CHECKPOINT_INTERVAL == 0) && !checkpointWriter.isBusy())
+            {
+               checkpointWriter.offer(getCheckpoint());
+            }
+         }
+         if ((iterationListener != null) && (pyramidLevel == 0))
+         {
+            iterationListener.run();
+         }
+         if (iterationMoved == 0L)
+         {
+            stillIterations++;
+         }
+         else
+         {
+            stillIterations = 0;
+         }
+         if ((window > 0) && (stillIterations >= window))
+         {
+            if (progress != null)
+            {
+               progress.println("converged iteration=" + (iterationBase + i + 1) + "/" + (iterationBase + iterations));
+            }
+            break;
+         }
+      }
+      return(true);
+   }
+
+
+   /**
+    * Locate cells coarse to fine. The blue particle mask is halved
+    * PYRAMID_LEVELS times, a coarse pixel being blue if any of its 4 pixels
+    * are, with the mass of the image particles it covers. Level l runs up to
+    * ITERATIONS / 2^l iterations with the radius scaled down alike, so each
+    * step of PIXEL_MOVEMENT covers 2^l image pixels, and forces follow the
+    * image pixel distances. The coarsest level runs like a full run; each
+    * finer level starts its particles from their parents' positions and
+    * refines them for PYRAMID_ITERATIONS iterations. Returns false if
+    * aborted.
+    */
+   private boolean locatePyramid()
+   {
+      Particles   fine    = Particles;
+      int         levels  = PYRAMID_LEVELS;
+      int[]       widths  = new int[levels + 1];
+      int[]       heights = new int[levels + 1];
+      int[][]     masses  = new int[levels + 1][];
+
+      widths[0]  = imageWidth;
+      heights[0] = imageHeight;
+      masses[0]  = new int[imageWidth * imageHeight];
+      for (int p = 0; p < fine.count; p++)
+      {
+         masses[0][fine.origin[p]] = 1;
+      }
+      for (int l = 1; l <= levels; l++)
+      {
+         int w  = (widths[l - 1] + 1) / 2;
+         int h  = (heights[l - 1] + 1) / 2;
+         int w2 = widths[l - 1];
+         int h2 = heights[l - 1];
+         widths[l]  = w;
+         heights[l] = h;
+         masses[l]  = new int[w * h];
+         for (int x = 0; x < w; x++)
+         {
+            for (int y = 0; y < h; y++)
+            {
+               int mass = 0;
+               for (int x2 = 2 * x; x2 <= 2 * x + 1 && x2 < w2; x2++)
+               {
+                  for (int y2 = 2 * y; y2 <= 2 * y + 1 && y2 < h2; y2++)
+                  {
+                     mass += masses[l - 1][y2 * w2 + x2];
+                  }
+               }
+               masses[l][y * w + x] = mass;
+            }
+         }
+      }
+
+      Particles parents     = null;
+      int[]     parentSlots = null;
+      try
+      {
+         for (int l = levels; l >= 0; l--)
+         {
+            int       w         = widths[l];
+            int       h         = heights[l];
+            Particles particles = fine;
+            int[]     slots     = null;
+            if (l > 0)
+            {
+               int count = 0;
+               for (int i = 0; i < w * h; i++)
+               {
+                  if (masses[l][i] > 0)
+                  {
+                     count++;
+                  }
+               }
+               particles = new Particles(count);
+               particles.mass = new double[count];
+               slots     = new int[w * h];
+               Arrays.fill(slots, -1);
+               for (int x = 0; x < w; x++)
+               {
+                  for (int y = 0; y < h; y++)
+                  {
+                     if (masses[l][y * w + x] > 0)
+                     {
+                        slots[y * w + x] = particles.count;
+                        particles.mass[particles.count] = (double)masses[l][y * w + x];
+                        particles.add(x, y, w, Color.BLUE.getRGB());
+                     }
+                  }
+               }
+            }
+
+            // Start from the parent positions, keeping the offset of the
+            // pixel within its parent so that siblings do not coincide.
+            if (parents != null)
+            {
+               int pw = widths[l + 1];
+               for (int p = 0; p < particles.count; p++)
+               {
+                  int x      = particles.origin[p] % w;
+                  int y      = particles.origin[p] / w;
+                  int parent = parentSlots[(y / 2) * pw + x / 2];
+                  if (parent != -1)
+                  {
+                     double px = 2.0 * parents.x[parent] + (double)(x - 2 * (x / 2)) - 0.5;
+                     double py = 2.0 * parents.y[parent] + (double)(y - 2 * (y / 2)) - 0.5;
+                     particles.x[p] = Math.min(Math.max(px, 0.0), (double)w - 0.5);
+                     particles.y[p] = Math.min(Math.max(py, 0.0), (double)h - 0.5);
+                  }
+               }
+            }
+
+            if (progress != null)
+            {
+               progress.println("level=" + l + "/" + levels);
+            }
+            Particles    = particles;
+            pyramidLevel = l;
+            setGrid(w, h, Math.max(PIXEL_NEIGHBORHOOD_RADIUS >> l, 1), 1 << l);
+            PixelTracker = new CellList(w, h, trackerCellSize(), particles.count);
+            PixelTracker.assign(particles, 0, particles.count);
+            PixelTracker.build(particles.count);
+            if (FAR_FIELD_THETA > 0.0)
+            {
+               PixelTracker.sum(particles);
+            }
+            if (!iterate(levelIterations(l), CONVERGENCE_WINDOW))
+            {
+               return(false);
+            }
+            parents     = particles;
+            parentSlots = slots;
+         }
+      }
+      finally
+      {
+         if (Particles != fine)
+         {
+            Particles = fine;
+            setGrid(imageWidth, imageHeight, PIXEL_NEIGHBORHOOD_RADIUS, 1);
+            PixelTracker = newCellList(fine.count);
+            PixelTracker.assign(fine, 0, fine.count);
+            PixelTracker.build(fine.count);
+            if (FAR_FIELD_THETA > 0.0)
+            {
+               PixelTracker.sum(fine);
+            }
+         }
+         pyramidLevel = 0;
+      }
+      return(true);
+   }
+
+
+   /**
+    * Set the particle grid dimensions, neighborhood radius and image pixels
+    * per grid pixel.
+    */
+   private void setGrid(int width, int height, int radius, int scale)
+   {
+      gridWidth  = width;
+      gridHeight = height;
+      gridRadius = radius;
+      gridScale  = (double)scale;
+   }
+
+
+   // Iterations of a pyramid level: ITERATIONS / 2^l at the coarsest
+   // level, and at most PYRAMID_ITERATIONS at the finer ones.
+   private int levelIterations(int level)
+   {
+      int iterations = Math.max(ITERATIONS >> level, 1);
+
+      if (level < PYRAMID_LEVELS)
+      {
+         iterations = Math.min(iterations, PYRAMID_ITERATIONS);
+      }
+      return(iterations);
+   }
+
+
+   // Pass the coordinates to the listener if a milestone is at iterations,
+   // skipping the milestones before it, which a resumed run has passed.
+   private void passMilestones(int iterations)
+   {
+      if ((MILESTONES == null) || (milestoneListener == null))
+      {
+         return;
+      }
+      while ((nextMilestone < MILESTONES.length) && (MILESTONES[nextMilestone] < iterations))
+      {
+         nextMilestone++;
+      }
+      if ((nextMilestone < MILESTONES.length) && (MILESTONES[nextMilestone] == iterations))
+      {
+         passMilestone(iterations);
+         nextMilestone++;
+      }
+   }
+
+
+   // At the end of a run of iterations, unless aborted, pass the final
+   // coordinates for the milestones not reached, up to iterations.
+   private boolean finishMilestones(boolean done, int iterations)
+   {
+      if (done && (MILESTONES != null) && (milestoneListener != null))
+      {
+         for ( ; nextMilestone < MILESTONES.length; nextMilestone++)
+         {
+            if (MILESTONES[nextMilestone] <= iterations)
+            {
+               passMilestone(MILESTONES[nextMilestone]);
+            }
+         }
+      }
+      return(done);
+   }
+
+
+   // Pass the coordinates at a milestone: the cells of the particles, and
+   // the inclusions as finalizeImage() would leave them.
+   private void passMilestone(int iterations)
+   {
+      int[] cells      = getCellComponents().getCoordinates();
+      int[] inclusions = getInclusionComponents(true).getCoordinates();
+      milestoneListener.milestone(iterations, cells, inclusions);
+   }
+
+
+   /**
+    * Get a force kernel by name, or null for the double precision sums.
+    */
+   public static synchronized ForceKernel getForceKernel(String name)
+   {
+      if (name.equals("float"))
+      {
+         return(new FloatForceKernel());
+      }
+      if (name.equals("vector"))
+      {
+         if (vectorKernel == null)
+         {
+            try
+            {
+               vectorKernel = (ForceKernel)Class.forName("VectorForceKernel").getDeclaredConstructor().newInstance();
+            }
+            catch (ReflectiveOperationException | LinkageError e) {
+               System.err.println("Vector API kernel not available (" + e +
+                                  "), using the float kernel");
+               vectorKernel = new FloatForceKernel();
+            }
+         }
+         return(vectorKernel);
+      }
+      return(null);
+   }
+
+
+   /**
+    * Run the force (commit = false) or commit (commit = true) phase over all
+    * particles, split across the thread pool if there is one. Each particle
+    * only writes its own entries, so the result does not depend on the split.
+    */
+   private void updateParticles(boolean commit)
+   {
+      int count = Particles.count;
+
+      if (pool == null)
+      {
+         updateParticles(commit, 0, count);
+      }
+      else
+      {
+         int grain = Math.max(PARTICLE_GRAIN, count / (THREADS * 16));
+         pool.invoke(new ParticleTask(commit, 0, count, grain));
+      }
+   }
+
+
+   // Particle update task.
+   private class ParticleTask extends RecursiveAction
+   {
+      private static final long serialVersionUID = 1L;
+
+      boolean commit;
+      int     from;
+      int     to;
+      int     grain;
+
+      public ParticleTask(boolean commit, int from, int to, int grain)
+      {
+         this.commit = commit;
+         this.from   = from;
+         this.to     = to;
+         this.grain  = grain;
+      }
+
+
+      @Override
+      protected void compute()
+      {
+         if (to - from <= grain)
+         {
+            updateParticles(commit, from, to);
+         }
+         else
+         {
+            int mid = (from + to) >>> 1;
+            invokeAll(new ParticleTask(commit, from, mid, grain),
+                      new ParticleTask(commit, mid, to, grain));
+         }
+      }
+   }
+
+
+   // Add the force kernel attraction of the lanes from (inclusive) to
+   // (exclusive) on a particle with the neighborhood box x0..x1, y0..y1.
+   private void accumulate(int from, int to, double px, double py,
+                           int x0, int x1, int y0, int y1, double[] force)
+   {
+      kernel.accumulate(PixelTracker.laneX, PixelTracker.laneY, PixelTracker.laneMass, from, to,
+                        (float)px, (float)py, x0, x1 + 1, y0, y1 + 1, (float)gridScale, force);
+   }
+
+
+   // Mark the moving grid cells within the neighborhood radius of a cell
+   // holding a moving particle, as running window counts along the columns
+   // and then the rows.
+   private void dilateMoving()
+   {
+      int       k       = gridRadius / movingSize + 1;
+      boolean[] columns = movingColumnsNear;
+
+      for (int x = 0; x < movingColumns; x++)
+      {
+         int c     = x * movingRows;
+         int count = 0;
+         for (int y = 0; y < Math.min(k, movingRows); y++)
+         {
+            count += moving[c + y] ? 1 : 0;
+         }
+         for (int y = 0; y < movingRows; y++)
+         {
+            if (y + k < movingRows)
+            {
+               count += moving[c + y + k] ? 1 : 0;
+            }
+            if (y - k - 1 >= 0)
+            {
+               count -= moving[c + y - k - 1] ? 1 : 0;
+            }
+            columns[c + y] = (count > 0);
+         }
+      }
+      for (int y = 0; y < movingRows; y++)
+      {
+         int count = 0;
+         for (int x = 0; x < Math.min(k, movingColumns); x++)
+         {
+            count += columns[x * movingRows + y] ? 1 : 0;
+         }
+         for (int x = 0; x < movingColumns; x++)
+         {
+            if (x + k < movingColumns)
+            {
+               count += columns[(x + k) * movingRows + y] ? 1 : 0;
+            }
+            if (x - k - 1 >= 0)
+            {
+               count -= columns[(x - k - 1) * movingRows + y] ? 1 : 0;
+            }
+            movingNear[x * movingRows + y] = (count > 0);
+         }
+      }
+   }
+
+
+   /**
+    * Update particles from (inclusive) to (exclusive).
+    */
+   private void updateParticles(boolean commit, int from, int to)
+   {
+      Particles particles = Particles;
+
+      if (commit)
+      {
+         long moved = 0L;
+         for (int p = from; p < to; p++)
+         {
+            if (((int)particles.x[p] != (int)particles.nextX[p]) || ((int)particles.y[p] != (int)particles.nextY[p]))
+            {
+               moved++;
+            }
+            particles.x[p] = particles.nextX[p];
+            particles.y[p] = particles.nextY[p];
+            if ((int)particles.x[p] < 0)
+            {
+               particles.x[p] = 0.0;
+            }
+            if ((int)particles.x[p] >= gridWidth)
+            {
+               particles.x[p] = (double)(gridWidth - 1);
+            }
+            if ((int)particles.y[p] < 0)
+            {
+               particles.y[p] = 0.0;
+            }
+            if ((int)particles.y[p] >= gridHeight)
+            {
+               particles.y[p] = (double)(gridHeight - 1);
+            }
+         }
+         synchronized (this)
+         {
+            iterationMoved += moved;
+         }
+         if (sleeping != null)
+         {
+            for (int p = from; p < to; p++)
+            {
+               double dx = particles.x[p] - quietX[p];
+               double dy = particles.y[p] - quietY[p];
+               if (dx * dx + dy * dy > SLEEP_DISTANCE * SLEEP_DISTANCE)
+               {
+                  quietX[p] = particles.x[p];
+                  quietY[p] = particles.y[p];
+                  quiet[p]  = 0;
+               }
+               else if (quiet[p] < SLEEP_ITERATIONS)
+               {
+                  quiet[p]++;
+               }
+               if (!sleeping[p] && (quiet[p] < SLEEP_ITERATIONS))
+               {
+                  moving[((int)particles.x[p] / movingSize) * movingRows + (int)particles.y[p] / movingSize] = true;
+               }
+            }
+         }
+         PixelTracker.assign(particles, from, to);
+         return;
+      }
+      int      cellSize = PixelTracker.cellSize;
+      int      rows     = PixelTracker.rows;
+      int[]    start    = PixelTracker.start;
+      int[]    index    = PixelTracker.index;
+      boolean  farField = (FAR_FIELD_THETA > 0.0);
+      double[] mass     = particles.mass;
+      double[] force    = (kernel != null) ? new double[2] : null;
+      for (int p = from; p < to; p++)
+      {
+         if (abort)
+         {
+            return;
+         }
+
+         // Accumulate the attraction to the neighboring particles:
+         // a unit vector scaled by 1/d^2 beyond a distance of 1.
+         // One square root serves both the distance and the normalization,
+         // and the arithmetic order matches the former Vector2d code.
+         // A coincident neighbor yields NaN, which leaves the particle in place.
+         // Coarse pyramid particles are weighted by their mass.
+         // Each cell column is read as runs of exactly summed cells,
+         // split by the far-field cells.
+         double px = particles.x[p];
+         double py = particles.y[p];
+
+         // Sleep while quiet with no moving particle near, and wake.
+         if (sleeping != null)
+         {
+            boolean near = movingNear[((int)px / movingSize) * movingRows + (int)py / movingSize];
+            if (sleeping[p] || (quiet[p] >= SLEEP_ITERATIONS))
+            {
+               sleeping[p] = !near;
+               if (!near)
+               {
+                  particles.nextX[p] = px;
+                  particles.nextY[p] = py;
+                  continue;
+               }
+            }
+         }
+         double fx = 0.0;
+         double fy = 0.0;
+         int    x0 = Math.max((int)px - gridRadius, 0);
+         int    x1 = Math.min((int)px + gridRadius, gridWidth - 1);
+         int    y0 = Math.max((int)py - gridRadius, 0);
+         int    y1 = Math.min((int)py + gridRadius, gridHeight - 1);
+         if (force != null)
+         {
+            force[0] = 0.0;
+            force[1] = 0.0;
+         }
+         for (int cx = x0 / cellSize; cx <= x1 / cellSize; cx++)
+         {
+            int cy = y0 / cellSize;
+            while (cy <= y1 / cellSize)
+            {
+               int first = cy;
+               while ((cy <= y1 / cellSize) &&
+                      !(farField && isFarCell(p, cx, cy, px, py, x0, x1, y0, y1)))
+               {
+                  cy++;
+               }
+               int to2 = start[cx * rows + cy];
+               if (kernel != null)
+               {
+                  // Float lanes, skipping the particle's own lane.
+                  int k = start[cx * rows + first];
+                  int l = PixelTracker.lane[p];
+                  if ((l >= k) && (l < to2))
+                  {
+                     accumulate(k, l, px, py, x0, x1, y0, y1, force);
+                     k = l + 1;
+                  }
+                  accumulate(k, to2, px, py, x0, x1, y0, y1, force);
+               }
+               else
+               {
+                  for (int k = start[cx * rows + first]; k < to2; k++)
+                  {
+                     int p2 = index[k];
+                     if (p2 == p) { continue; }
+                     double x2 = particles.x[p2];
+                     double y2 = particles.y[p2];
+                     if (((int)x2 < x0) || ((int)x2 > x1) || ((int)y2 < y0) || ((int)y2 > y1))
+                     {
+                        continue;
+                     }
+                     double vx = x2 - px;
+                     double vy = y2 - py;
+                     double d  = Math.sqrt(vx * vx + vy * vy);
+                     double s  = 1.0 / d;
+                     vx *= s;
+                     vy *= s;
+                     double ds = d * gridScale;
+                     if (ds > 1.0)
+                     {
+                        s   = 1.0 / (ds * ds);
+                        vx *= s;
+                        vy *= s;
+                     }
+                     if (mass != null)
+                     {
+                        vx *= mass[p2];
+                        vy *= mass[p2];
+                     }
+                     fx += vx;
+                     fy += vy;
+                  }
+               }
+               if (cy <= y1 / cellSize)
+               {
+                  // Far-field cell.
+                  int    c  = cx * rows + cy;
+                  double m  = PixelTracker.sumMass[c];
+                  double vx = PixelTracker.sumX[c] / m - px;
+                  double vy = PixelTracker.sumY[c] / m - py;
+                  double d  = Math.sqrt(vx * vx + vy * vy);
+                  double ds = d * gridScale;
+                  double s  = m / d;
+                  if (ds > 1.0)
+                  {
+                     s /= ds * ds;
+                  }
+                  fx += vx * s;
+                  fy += vy * s;
+                  cy++;
+               }
+            }
+         }
+         if (force != null)
+         {
+            fx += force[0];
+            fy += force[1];
+         }
+         particles.nextX[p] = px;
+         particles.nextY[p] = py;
+         double d = Math.sqrt(fx * fx + fy * fy);
+         if (d > 0.0)
+         {
+            double s = 1.0 / d;
+            particles.nextX[p] += fx * s * PIXEL_MOVEMENT;
+            particles.nextY[p] += fy * s * PIXEL_MOVEMENT;
+         }
+      }
+   }
+
+
+   /**
+    * Is cell (cx, cy) a far-field cell for particle p at (px, py)?
+    * It must be non-empty, not hold p, lie inside the neighborhood x0-x1,
+    * y0-y1, and subtend an angle below FAR_FIELD_THETA from its centroid.
+    * The cell holding p is always summed exactly, as its centroid includes
+    * the particle's own mass.
+    */
+   private boolean isFarCell(int p, int cx, int cy, double px, double py, int x0, int x1, int y0, int y1)
+   {
+      int cellSize = PixelTracker.cellSize;
+      int c        = cx * PixelTracker.rows + cy;
+      int n        = PixelTracker.start[c + 1] - PixelTracker.start[c];
+
+      if ((n == 0) || (c == PixelTracker.cell[p]))
+      {
+         return(false);
+      }
+      if ((cx * cellSize < x0) || (Math.min((cx + 1) * cellSize, gridWidth) - 1 > x1) ||
+          (cy * cellSize < y0) || (Math.min((cy + 1) * cellSize, gridHeight) - 1 > y1))
+      {
+         return(false);
+      }
+      double vx = PixelTracker.sumX[c] / PixelTracker.sumMass[c] - px;
+      double vy = PixelTracker.sumY[c] / PixelTracker.sumMass[c] - py;
+      return((double)(cellSize * cellSize) < FAR_FIELD_THETA * FAR_FIELD_THETA * (vx * vx + vy * vy));
+   }
+
+
+   /**
+    * Cell size of the pixel tracker.
+    */
+   private int trackerCellSize()
+   {
+      if (FAR_FIELD_THETA > 0.0)
+      {
+         if (FAR_FIELD_CELL_SIZE > 0)
+         {
+            return(FAR_FIELD_CELL_SIZE);
+         }
+         return(Math.max(gridRadius / 5, 2));
+      }
+      return(CELL_SIZE);
+   }
+
+
+   /**
+    * Finalize image.
+    */
+   public void finalizeImage()
+   {
+      metrics.begin(Metrics.FINALIZE);
+      Particles particles = Particles;
+      int       green     = Color.GREEN.getRGB() & rasterBits;
+      for (int p = 0; p < particles.count; p++)
+      {
+         raster[(int)particles.y[p] * imageWidth + (int)particles.x[p]] = green;
+      }
+      metrics.end(Metrics.FINALIZE);
+   }
+
+
+   /**
+    * Print cell and inclusion coordinates.
+    */
+   public void printCoordinates()
+   {
+      printCoordinates(System.out);
+   }
+
+
+   /**
+    * Print cell and inclusion coordinates to a stream.
+    */
+   public void printCoordinates(PrintStream out)
+   {
+      if (currentImage != null)
+      {
+         printCoordinates(getCellCoordinates(), getInclusionCoordinates(), out);
+      }
+   }
+
+
+   /**
+    * Print cell and inclusion x, y coordinate pairs.
+    */
+   public static void printCoordinates(int[] cells, int[] inclusions, PrintStream out)
+   {
+      out.println("Cell (blue blob) coordinates:");
+      printCoordinates(cells, out);
+      out.println("Inclusion (red dot) coordinates:");
+      printCoordinates(inclusions, out);
+   }
+
+
+   /**
+    * Print x, y coordinate pairs.
+    */
+   public static void printCoordinates(int[] coordinates, PrintStream out)
+   {
+      for (int i = 0; i < coordinates.length; i += 2)
+      {
+         out.println(coordinates[i] + "," + coordinates[i + 1]);
+      }
+   }
+
+
+   /**
+    * Get the cell coordinates, the centroids of the connected final
+    * particle positions, as x, y pairs.
+    */
+   public int[] getCellCoordinates()
+   {
+      return(getCellComponents().getCoordinates());
+   }
+
+
+   /**
+    * Get the inclusion coordinates, the centroids of the connected red
+    * pixels, as x, y pairs.
+    */
+   public int[] getInclusionCoordinates()
+   {
+      return(getInclusionComponents().getCoordinates());
+   }
+
+
+   /**
+    * Get the connected components of the final particle positions.
+    */
+   public Components getCellComponents()
+   {
+      metrics.begin(Metrics.COORDINATES);
+      boolean[] mask      = newMask();
+      Particles particles = Particles;
+      if (particles != null)
+      {
+         for (int p = 0; p < particles.count; p++)
+         {
+            mask[(int)particles.y[p] * imageWidth + (int)particles.x[p]] = true;
+         }
+      }
+      Components components = new Components(mask, imageWidth, imageHeight);
+      metrics.end(Metrics.COORDINATES);
+      return(components);
+   }
+
+
+   /**
+    * Get the connected components of the red pixels of the image.
+    */
+   public Components getInclusionComponents()
+   {
+      return(getInclusionComponents(false));
+   }
+
+
+   /**
+    * Get the connected components of the red pixels of the image, or if
+    * overlay is true, of those not under a particle, as finalizeImage()
+    * would leave them, without writing the image.
+    */
+   public Components getInclusionComponents(boolean overlay)
+   {
+      metrics.begin(Metrics.COORDINATES);
+      boolean[] mask = newMask();
+      for (int i = 0; i < imageWidth * imageHeight; i++)
+      {
+         mask[i] = isRed(raster[i]);
+      }
+      Particles particles = Particles;
+      if (overlay && (particles != null))
+      {
+         for (int p = 0; p < particles.count; p++)
+         {
+            mask[(int)particles.y[p] * imageWidth + (int)particles.x[p]] = false;
+         }
+      }
+      Components components = new Components(mask, imageWidth, imageHeight);
+      metrics.end(Metrics.COORDINATES);
+      return(components);
+   }
+}
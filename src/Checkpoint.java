@@ -0,0 +1,302 @@
+// Particle checkpoint.
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Particle positions at an iteration of a run at image resolution, with
+ * the image hash and the parameters that must match to resume from it.
+ * The binary format is big-endian: the magic "AZCK", a version, the
+ * parameters as a UTF string, the image hash, width and height, the
+ * completed iterations, the particle count, the x and then y positions as
+ * doubles, whether the run sleeps particles and if so its active set (the
+ * sleeping flags, quiet iterations and quiet x and y positions of the
+ * particles, and the count and flags of the cells near a moving particle),
+ * and a CRC32 of all that. A checkpoint is written to a temporary
+ * file and renamed over the previous one, so the file always holds the
+ * latest complete checkpoint.
+ */
+public class Checkpoint
+{
+   // Format.
+   public static final int MAGIC   = 0x415A434B;
+   public static final int VERSION = 2;
+
+   // Run.
+   public String parameters;
+   public long   imageHash;
+   public int    width;
+   public int    height;
+   public int    iteration;
+
+   // Particle positions.
+   public int      count;
+   public double[] x;
+   public double[] y;
+
+   // Active set, or null sleeping if the run does not sleep particles.
+   public boolean[] sleeping = null;
+   public int[]     quiet;
+   public double[]  quietX;
+   public double[]  quietY;
+   public boolean[] movingNear;
+
+   /**
+    * Write to a file, through a temporary file.
+    */
+   public void write(File file) throws IOException
+   {
+      File             temp = new File(file.getPath() + ".tmp");
+      CRC32            crc  = new CRC32();
+      DataOutputStream out  = new DataOutputStream(new CheckedOutputStream(
+                                                      new BufferedOutputStream(new FileOutputStream(temp), 1 << 16), crc));
+
+      try
+      {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         out.writeUTF(parameters);
+         out.writeLong(imageHash);
+         out.writeInt(width);
+         out.writeInt(height);
+         out.writeInt(iteration);
+         out.writeInt(count);
+         for (int p = 0; p < count; p++)
+         {
+            out.writeDouble(x[p]);
+         }
+         for (int p = 0; p < count; p++)
+         {
+            out.writeDouble(y[p]);
+         }
+         out.writeBoolean(sleeping != null);
+         if (sleeping != null)
+         {
+            for (int p = 0; p < count; p++)
+            {
+               out.writeBoolean(sleeping[p]);
+            }
+            for (int p = 0; p < count; p++)
+            {
+               out.writeInt(quiet[p]);
+            }
+            for (int p = 0; p < count; p++)
+            {
+               out.writeDouble(quietX[p]);
+            }
+            for (int p = 0; p < count; p++)
+            {
+               out.writeDouble(quietY[p]);
+            }
+            out.writeInt(movingNear.length);
+            for (boolean near : movingNear)
+            {
+               out.writeBoolean(near);
+            }
+         }
+         long checksum = crc.getValue();
+         out.writeLong(checksum);
+      }
+      finally
+      {
+         out.close();
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+
+   /**
+    * Read from a file. Returns null if there is no valid checkpoint.
+    */
+   public static Checkpoint read(File file)
+   {
+      if (!file.isFile())
+      {
+         return(null);
+      }
+      try
+      {
+         CRC32           crc = new CRC32();
+         DataInputStream in  = new DataInputStream(new CheckedInputStream(
+                                                      new BufferedInputStream(new FileInputStream(file), 1 << 16), crc));
+         try
+         {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION))
+            {
+               return(null);
+            }
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.parameters = in.readUTF();
+            checkpoint.imageHash  = in.readLong();
+            checkpoint.width      = in.readInt();
+            checkpoint.height     = in.readInt();
+            checkpoint.iteration  = in.readInt();
+            checkpoint.count      = in.readInt();
+            if ((checkpoint.count < 0) || ((long)checkpoint.count * 16L > file.length()))
+            {
+               return(null);
+            }
+            checkpoint.x = new double[checkpoint.count];
+            checkpoint.y = new double[checkpoint.count];
+            for (int p = 0; p < checkpoint.count; p++)
+            {
+               checkpoint.x[p] = in.readDouble();
+            }
+            for (int p = 0; p < checkpoint.count; p++)
+            {
+               checkpoint.y[p] = in.readDouble();
+            }
+            if (in.readBoolean())
+            {
+               checkpoint.sleeping = new boolean[checkpoint.count];
+               checkpoint.quiet    = new int[checkpoint.count];
+               checkpoint.quietX   = new double[checkpoint.count];
+               checkpoint.quietY   = new double[checkpoint.count];
+               for (int p = 0; p < checkpoint.count; p++)
+               {
+                  checkpoint.sleeping[p] = in.readBoolean();
+               }
+               for (int p = 0; p < checkpoint.count; p++)
+               {
+                  checkpoint.quiet[p] = in.readInt();
+               }
+               for (int p = 0; p < checkpoint.count; p++)
+               {
+                  checkpoint.quietX[p] = in.readDouble();
+               }
+               for (int p = 0; p < checkpoint.count; p++)
+               {
+                  checkpoint.quietY[p] = in.readDouble();
+               }
+               int cells = in.readInt();
+               if ((cells < 0) || ((long)cells > file.length()))
+               {
+                  return(null);
+               }
+               checkpoint.movingNear = new boolean[cells];
+               for (int i = 0; i < cells; i++)
+               {
+                  checkpoint.movingNear[i] = in.readBoolean();
+               }
+            }
+            long checksum = crc.getValue();
+            if (in.readLong() != checksum)
+            {
+               return(null);
+            }
+            return(checkpoint);
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch (IOException e) {
+         return(null);
+      }
+   }
+
+
+   /**
+    * Writes checkpoints to a file on a background thread. A checkpoint
+    * offered while the last is still being written is dropped, so the
+    * iterations never wait for the disk.
+    */
+   public static class Writer
+   {
+      File            file;
+      ExecutorService executor;
+      Future<?>       pending = null;
+
+      public Writer(File file)
+      {
+         this.file = file;
+         executor  = Executors.newSingleThreadExecutor(new ThreadFactory()
+                                                       {
+                                                          @Override
+                                                          public Thread newThread(Runnable runnable)
+                                                          {
+                                                             Thread thread = new Thread(runnable, "checkpoint");
+                                                             thread.setDaemon(true);
+                                                             return(thread);
+                                                          }
+                                                       }
+                                                       );
+      }
+
+
+      /**
+       * Is the last checkpoint still being written?
+       */
+      public boolean isBusy()
+      {
+         return((pending != null) && !pending.isDone());
+      }
+
+
+      /**
+       * Write a checkpoint in the background, unless busy.
+       * Returns false if dropped.
+       */
+      public boolean offer(final Checkpoint checkpoint)
+      {
+         if (isBusy())
+         {
+            return(false);
+         }
+         pending = executor.submit(new Runnable()
+                                   {
+                                      @Override
+                                      public void run()
+                                      {
+                                         try
+                                         {
+                                            checkpoint.write(file);
+                                         }
+                                         catch (IOException e) {
+                                            System.err.println("Cannot write checkpoint " + file + ": " + e.getMessage());
+                                         }
+                                      }
+                                   }
+                                   );
+         return(true);
+      }
+
+
+      /**
+       * Write a checkpoint after the pending one, and wait for both.
+       */
+      public void finish(Checkpoint checkpoint)
+      {
+         if (checkpoint != null)
+         {
+            pending = null;
+            offer(checkpoint);
+         }
+         executor.shutdown();
+         try
+         {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+}
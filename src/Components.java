@@ -0,0 +1,273 @@
+// Connected components.
+
+import java.util.Arrays;
+
+/**
+ * 8-connected components of a pixel mask, with the pixel count, centroid
+ * and bounding box of each. Labeling is one union-find pass in row order,
+ * the order of the image raster, keeping only two rows of labels.
+ * Components are then numbered in the column order of their first pixel,
+ * the order in which coordinates are reported.
+ */
+public class Components
+{
+   // Number of components.
+   public int count;
+
+   // Pixel count of each component.
+   public int[] pixels;
+
+   // Centroid of each component.
+   public double[] centroidX;
+   public double[] centroidY;
+
+   // Bounding box of each component, inclusive.
+   public int[] minX;
+   public int[] minY;
+   public int[] maxX;
+   public int[] maxY;
+
+   // Provisional label parents, sums and first row in the first column,
+   // while labeling.
+   private int[]  parent;
+   private long[] sumX;
+   private long[] sumY;
+   private int[]  firstY;
+
+   /**
+    * Label the components of a mask indexed y * width + x.
+    */
+   public Components(boolean[] mask, int width, int height)
+   {
+      count = 0;
+      grow(64);
+
+      int[] previous = new int[width];
+      int[] current  = new int[width];
+      Arrays.fill(previous, -1);
+      for (int y = 0; y < height; y++)
+      {
+         int row = y * width;
+         for (int x = 0; x < width; x++)
+         {
+            if (!mask[row + x])
+            {
+               current[x] = -1;
+               continue;
+            }
+
+            // Join the labeled neighbors: the row above and the left.
+            int label = -1;
+            for (int x2 = x - 1; x2 <= x + 1; x2++)
+            {
+               if ((x2 >= 0) && (x2 < width))
+               {
+                  label = union(label, previous[x2]);
+               }
+            }
+            if (x > 0)
+            {
+               label = union(label, current[x - 1]);
+            }
+            if (label == -1)
+            {
+               if (count == parent.length)
+               {
+                  grow(count * 2);
+               }
+               label         = count++;
+               parent[label] = label;
+               pixels[label] = 0;
+               sumX[label]   = 0L;
+               sumY[label]   = 0L;
+               minX[label]   = x;
+               minY[label]   = y;
+               maxX[label]   = x;
+               maxY[label]   = y;
+               firstY[label] = y;
+            }
+            current[x] = label;
+            pixels[label]++;
+            sumX[label] += x;
+            sumY[label] += y;
+            if (x < minX[label])
+            {
+               minX[label]   = x;
+               firstY[label] = y;
+            }
+            maxX[label] = Math.max(maxX[label], x);
+            maxY[label] = Math.max(maxY[label], y);
+         }
+         int[] swap = previous;
+         previous = current;
+         current  = swap;
+      }
+      resolve(height);
+   }
+
+
+   // Root of a label, halving the path.
+   private int find(int label)
+   {
+      while (parent[label] != label)
+      {
+         parent[label] = parent[parent[label]];
+         label         = parent[label];
+      }
+      return(label);
+   }
+
+
+   // Join two labels, either of which may be -1 for none, under the
+   // smaller root. Returns the root.
+   private int union(int a, int b)
+   {
+      if (a == -1)
+      {
+         return((b == -1) ? -1 : find(b));
+      }
+      if (b == -1)
+      {
+         return(find(a));
+      }
+      a = find(a);
+      b = find(b);
+      if (a < b)
+      {
+         parent[b] = a;
+         return(a);
+      }
+      else
+      {
+         parent[a] = b;
+         return(b);
+      }
+   }
+
+
+   // Merge the provisional labels into their roots, then number the
+   // components in the column order of their first pixels. A root is the
+   // smallest label in its set, so merging in label order moves each label
+   // into a root already merged.
+   private void resolve(int height)
+   {
+      int[] number     = new int[count];
+      int   components = 0;
+
+      for (int label = 0; label < count; label++)
+      {
+         int root = find(label);
+         if (root == label)
+         {
+            int n = components++;
+            number[label] = n;
+            pixels[n]     = pixels[label];
+            sumX[n]       = sumX[label];
+            sumY[n]       = sumY[label];
+            minX[n]       = minX[label];
+            minY[n]       = minY[label];
+            maxX[n]       = maxX[label];
+            maxY[n]       = maxY[label];
+            firstY[n]     = firstY[label];
+         }
+         else
+         {
+            int n = number[root];
+            pixels[n] += pixels[label];
+            sumX[n]   += sumX[label];
+            sumY[n]   += sumY[label];
+            if ((minX[label] < minX[n]) || ((minX[label] == minX[n]) && (firstY[label] < firstY[n])))
+            {
+               minX[n]   = minX[label];
+               firstY[n] = firstY[label];
+            }
+            minY[n] = Math.min(minY[n], minY[label]);
+            maxX[n] = Math.max(maxX[n], maxX[label]);
+            maxY[n] = Math.max(maxY[n], maxY[label]);
+         }
+      }
+      count = components;
+
+      // Sort by first pixel index in column order, which fits in an int
+      // as the mask does, with the component in the low half.
+      long[] order = new long[count];
+      for (int n = 0; n < count; n++)
+      {
+         order[n] = (((long)minX[n] * (long)height + (long)firstY[n]) << 32) | (long)n;
+      }
+      Arrays.sort(order);
+      int[] sortedPixels = new int[count];
+      int[] sortedMinX   = new int[count];
+      int[] sortedMinY   = new int[count];
+      int[] sortedMaxX   = new int[count];
+      int[] sortedMaxY   = new int[count];
+      centroidX = new double[count];
+      centroidY = new double[count];
+      for (int i = 0; i < count; i++)
+      {
+         int n = (int)order[i];
+         sortedPixels[i] = pixels[n];
+         sortedMinX[i]   = minX[n];
+         sortedMinY[i]   = minY[n];
+         sortedMaxX[i]   = maxX[n];
+         sortedMaxY[i]   = maxY[n];
+         centroidX[i]    = (double)sumX[n] / (double)pixels[n];
+         centroidY[i]    = (double)sumY[n] / (double)pixels[n];
+      }
+      pixels = sortedPixels;
+      minX   = sortedMinX;
+      minY   = sortedMinY;
+      maxX   = sortedMaxX;
+      maxY   = sortedMaxY;
+      parent = null;
+      sumX   = null;
+      sumY   = null;
+      firstY = null;
+   }
+
+
+   // Grow the label arrays.
+   private void grow(int capacity)
+   {
+      if (parent == null)
+      {
+         parent = new int[capacity];
+         pixels = new int[capacity];
+         sumX   = new long[capacity];
+         sumY   = new long[capacity];
+         minX   = new int[capacity];
+         minY   = new int[capacity];
+         maxX   = new int[capacity];
+         maxY   = new int[capacity];
+         firstY = new int[capacity];
+      }
+      else
+      {
+         parent = Arrays.copyOf(parent, capacity);
+         pixels = Arrays.copyOf(pixels, capacity);
+         sumX   = Arrays.copyOf(sumX, capacity);
+         sumY   = Arrays.copyOf(sumY, capacity);
+         minX   = Arrays.copyOf(minX, capacity);
+         minY   = Arrays.copyOf(minY, capacity);
+         maxX   = Arrays.copyOf(maxX, capacity);
+         maxY   = Arrays.copyOf(maxY, capacity);
+         firstY = Arrays.copyOf(firstY, capacity);
+      }
+   }
+
+
+   /**
+    * Component centroids rounded to pixels, as x, y pairs.
+    */
+   public int[] getCoordinates()
+   {
+      int[] coordinates = new int[count * 2];
+
+      for (int n = 0; n < count; n++)
+      {
+         coordinates[2 * n]     = (int)Math.round(centroidX[n]);
+         coordinates[2 * n + 1] = (int)Math.round(centroidY[n]);
+      }
+      return(coordinates);
+   }
+}
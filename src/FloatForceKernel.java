@@ -0,0 +1,45 @@
+// Scalar float force kernel.
+
+/**
+ * Force kernel evaluating one lane entry at a time in float arithmetic.
+ * This is the fallback when the vector kernel is not available.
+ */
+public class FloatForceKernel implements ForceKernel
+{
+   @Override
+   public void accumulate(float[] x, float[] y, float[] mass, int from, int to,
+                          float px, float py, float xMin, float xMax, float yMin, float yMax,
+                          float scale, double[] force)
+   {
+      float fx = 0.0f;
+      float fy = 0.0f;
+      float s2 = scale * scale;
+
+      for (int k = from; k < to; k++)
+      {
+         float x2 = x[k];
+         float y2 = y[k];
+         if ((x2 < xMin) || (x2 >= xMax) || (y2 < yMin) || (y2 >= yMax))
+         {
+            continue;
+         }
+         float vx = x2 - px;
+         float vy = y2 - py;
+         float d2 = vx * vx + vy * vy;
+         float d  = (float)Math.sqrt(d2);
+         float s  = 1.0f / d;
+         if (d * scale > 1.0f)
+         {
+            s /= d2 * s2;
+         }
+         if (mass != null)
+         {
+            s *= mass[k];
+         }
+         fx += vx * s;
+         fy += vy * s;
+      }
+      force[0] += fx;
+      force[1] += fy;
+   }
+}
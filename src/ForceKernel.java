@@ -0,0 +1,19 @@
+// Particle force kernel.
+
+/**
+ * Sums the attraction of a particle to a run of neighbor particles held in
+ * float lanes: a unit vector scaled by 1/d^2 beyond a distance of 1, times
+ * the neighbor mass if there are masses. Distances are measured in image
+ * pixels, scale of them to a lane unit. Only neighbors with xMin <= x < xMax
+ * and yMin <= y < yMax count. A coincident neighbor yields NaN.
+ */
+public interface ForceKernel
+{
+   /**
+    * Add the attraction of the lane entries from (inclusive) to (exclusive)
+    * on a particle at (px, py) to force[0] and force[1].
+    */
+   void accumulate(float[] x, float[] y, float[] mass, int from, int to,
+                   float px, float py, float xMin, float xMax, float yMin, float yMax,
+                   float scale, double[] force);
+}
@@ -0,0 +1,174 @@
+// Reusable locator buffers.
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Particle, cell list, noise filter and component mask buffers, and the
+ * fork-join pool of the particle updates and noise removal, kept between
+ * the images of one thread, so that a long-running process does not
+ * allocate them for every image. A buffer is reused while it is large
+ * enough and at most SLACK times the size asked for, and replaced
+ * otherwise, so the buffers follow the sizes of the recent images. The
+ * owner shuts the pool down when done.
+ */
+public class LocatorBuffers
+{
+   // Largest reused buffer, as a multiple of the size asked for.
+   public static final int SLACK = 4;
+
+   // Buffers.
+   private Particles   particles = null;
+   private CellList    cellList  = null;
+   private NoiseFilter filter    = null;
+   private boolean[]   mask      = null;
+
+   // Pool, its worker threads, and the metrics of the run using it.
+   private ForkJoinPool      pool        = null;
+   private ArrayList<Thread> poolThreads = new ArrayList<Thread>();
+   private Metrics           poolMetrics = null;
+
+   /**
+    * Get empty particles of a capacity.
+    */
+   public Particles getParticles(int capacity)
+   {
+      if ((particles == null) || !fits(particles.x.length, capacity))
+      {
+         particles = new Particles(capacity);
+      }
+      else
+      {
+         particles.clear();
+      }
+      return(particles);
+   }
+
+
+   /**
+    * Get a cell list of a grid and capacity.
+    */
+   public CellList getCellList(int width, int height, int cellSize, int capacity)
+   {
+      int cells = ((width + cellSize - 1) / cellSize) * ((height + cellSize - 1) / cellSize) + 1;
+
+      if ((cellList == null) || !fits(cellList.start.length, cells) || !fits(cellList.index.length, capacity))
+      {
+         cellList = new CellList(width, height, cellSize, capacity);
+      }
+      else
+      {
+         cellList.reset(width, height, cellSize, capacity);
+      }
+      return(cellList);
+   }
+
+
+   /**
+    * Get the noise filter of the pixels of an image.
+    */
+   public NoiseFilter getNoiseFilter(int[] pixels, int width, int height, ForkJoinPool pool)
+   {
+      int size = height * ((width + 63) >>> 6);
+
+      if ((filter == null) || !fits(filter.mask.length, size))
+      {
+         filter = new NoiseFilter(pixels, width, height, pool);
+      }
+      else
+      {
+         filter.reset(pixels, width, height, pool);
+      }
+      return(filter);
+   }
+
+
+   /**
+    * Get a cleared component mask of a size.
+    */
+   public boolean[] getMask(int size)
+   {
+      if ((mask == null) || !fits(mask.length, size))
+      {
+         mask = new boolean[size];
+      }
+      else
+      {
+         Arrays.fill(mask, 0, size, false);
+      }
+      return(mask);
+   }
+
+
+   /**
+    * Get the pool of a parallelism, whose worker threads the metrics of
+    * the run sample.
+    */
+   public synchronized ForkJoinPool getPool(int parallelism, Metrics metrics)
+   {
+      if ((pool == null) || (pool.getParallelism() != parallelism))
+      {
+         shutdown();
+         pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory()
+                                 {
+                                    @Override
+                                    public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+                                    {
+                                       ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                                       addPoolThread(thread);
+                                       return(thread);
+                                    }
+                                 }, null, false);
+      }
+      poolMetrics = metrics;
+      for (Thread thread : poolThreads)
+      {
+         metrics.addPoolThread(thread.getId());
+      }
+      return(pool);
+   }
+
+
+   // Add a pool worker thread, dropping those that have ended, and sample
+   // it with the metrics of the run.
+   private synchronized void addPoolThread(Thread thread)
+   {
+      for (Iterator<Thread> i = poolThreads.iterator(); i.hasNext(); )
+      {
+         if (i.next().getState() == Thread.State.TERMINATED)
+         {
+            i.remove();
+         }
+      }
+      poolThreads.add(thread);
+      if (poolMetrics != null)
+      {
+         poolMetrics.addPoolThread(thread.getId());
+      }
+   }
+
+
+   /**
+    * Shut the pool down.
+    */
+   public synchronized void shutdown()
+   {
+      if (pool != null)
+      {
+         pool.shutdown();
+         pool = null;
+      }
+      poolThreads.clear();
+      poolMetrics = null;
+   }
+
+
+   // Does a buffer length fit a size?
+   private static boolean fits(int length, int size)
+   {
+      return((length >= size) && (length <= Math.max(size, 1024) * SLACK));
+   }
+}
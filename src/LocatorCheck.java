@@ -0,0 +1,289 @@
+// Locator accuracy check.
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+
+/**
+ * Checks locator options against a full run: locates the cells and
+ * inclusions of an image once with the default options and once with the
+ * given ones, from the same cleaned pixels, and counts the markers of the
+ * full run that the checked run places within DISTANCE pixels, each
+ * checked marker matching at most one. On a synthetic image, both runs are
+ * also matched with the ground truth, within the smallest cell radius.
+ * Exits with 1 unless every marker of either run is matched.
+ */
+public class LocatorCheck
+{
+   // Distance in pixels within which a checked marker matches.
+   public double DISTANCE = 0.0;
+
+   // Parameters of the full run, and the checked run.
+   public CellLocator full    = new CellLocator();
+   public CellLocator checked = null;
+
+   // Synthetic image of the ground truth, or null for none.
+   public SyntheticImage truth = null;
+
+   // Coordinates of the runs, as x, y pairs.
+   public int[] fullCells;
+   public int[] fullInclusions;
+   public int[] checkedCells;
+   public int[] checkedInclusions;
+
+   // Run seconds.
+   public double fullSeconds;
+   public double checkedSeconds;
+
+   /**
+    * Locate the markers of the image with both runs.
+    * Returns false if a run is aborted.
+    */
+   public boolean run(BufferedImage image)
+   {
+      CellLocator source = new CellLocator(full);
+
+      source.progress = null;
+      source.setImage(image);
+      source.initPixels();
+      final int[][] result = new int[2][];
+      long          start  = System.nanoTime();
+      if (!locate(source, full, result))
+      {
+         return(false);
+      }
+      fullCells      = result[0];
+      fullInclusions = result[1];
+      fullSeconds    = (double)(System.nanoTime() - start) / 1.0e9;
+      start          = System.nanoTime();
+      if (!locate(source, checked, result))
+      {
+         return(false);
+      }
+      checkedCells      = result[0];
+      checkedInclusions = result[1];
+      checkedSeconds    = (double)(System.nanoTime() - start) / 1.0e9;
+      return(true);
+   }
+
+
+   // Locate the markers of a run from the cleaned source pixels, taking
+   // its coordinates at its last iteration milestone.
+   private static boolean locate(CellLocator source, CellLocator parameters, final int[][] result)
+   {
+      CellLocator locator = new CellLocator(parameters);
+
+      locator.progress          = null;
+      locator.MILESTONES        = new int[] { locator.ITERATIONS };
+      locator.milestoneListener = new CellLocator.MilestoneListener()
+                                  {
+                                     @Override
+                                     public void milestone(int iterations, int[] cells, int[] inclusions)
+                                     {
+                                        result[0] = cells;
+                                        result[1] = inclusions;
+                                     }
+                                  };
+      locator.initPixels(source);
+      return(locator.locateCells());
+   }
+
+
+   /**
+    * Count the reference markers with a distinct marker within distance
+    * pixels, taking the nearest unmatched marker of each in turn.
+    */
+   public static int match(int[] reference, int[] markers, double distance)
+   {
+      boolean[] used    = new boolean[markers.length / 2];
+      int       matched = 0;
+
+      for (int i = 0; i < reference.length; i += 2)
+      {
+         int    nearest = -1;
+         double best    = distance * distance;
+         for (int j = 0; j < markers.length; j += 2)
+         {
+            double dx = (double)(markers[j] - reference[i]);
+            double dy = (double)(markers[j + 1] - reference[i + 1]);
+            if (!used[j / 2] && (dx * dx + dy * dy <= best))
+            {
+               nearest = j / 2;
+               best    = dx * dx + dy * dy;
+            }
+         }
+         if (nearest != -1)
+         {
+            used[nearest] = true;
+            matched++;
+         }
+      }
+      return(matched);
+   }
+
+
+   /**
+    * Print the marker counts and matches of the runs.
+    * Returns true if every marker of either run is matched.
+    */
+   public boolean report(PrintStream out)
+   {
+      out.println("full: " + full.getResultParameters());
+      out.println("checked: " + checked.getResultParameters());
+      boolean cells      = report("cells", fullCells, checkedCells, out);
+      boolean inclusions = report("inclusions", fullInclusions, checkedInclusions, out);
+
+      if (truth != null)
+      {
+         reportTruth("cells", truth.getCellCoordinates(), out);
+         reportTruth("inclusions", truth.getInclusionCoordinates(), out);
+      }
+
+      out.println("seconds: full=" + String.format(Locale.ROOT, "%.3f", fullSeconds) +
+                  " checked=" + String.format(Locale.ROOT, "%.3f", checkedSeconds));
+      return(cells && inclusions);
+   }
+
+
+   // Print the counts and matches of a marker type.
+   private boolean report(String type, int[] reference, int[] markers, PrintStream out)
+   {
+      int matched = match(reference, markers, DISTANCE);
+
+      out.println(type + ": full=" + reference.length / 2 + " checked=" + markers.length / 2 +
+                  " matched=" + matched + " within " + DISTANCE + " pixels");
+      return((matched == reference.length / 2) && (matched == markers.length / 2));
+   }
+
+
+   // Print the ground truth matches of a marker type.
+   private void reportTruth(String type, int[] coordinates, PrintStream out)
+   {
+      int[] full    = type.equals("cells") ? fullCells : fullInclusions;
+      int[] checked = type.equals("cells") ? checkedCells : checkedInclusions;
+
+      out.println("truth " + type + ": " + coordinates.length / 2 +
+                  " full=" + match(coordinates, full, truth.MIN_RADIUS) +
+                  " checked=" + match(coordinates, checked, truth.MIN_RADIUS) +
+                  " within " + truth.MIN_RADIUS + " pixels");
+   }
+
+
+   /**
+    * Check the options on an image.
+    */
+   public static void main(String[] args)
+   {
+      LocatorCheck check    = new LocatorCheck();
+      CellLocator  full     = check.full;
+      int          converge = 0;
+      int          pyramid  = 0;
+      int          sleep    = 0;
+      String       kernel   = null;
+      int          a        = 0;
+
+      try
+      {
+         for ( ; a < args.length - 1 && args[a].startsWith("-"); a += 2)
+         {
+            String value = args[a + 1];
+            if (args[a].equals("-converge"))
+            {
+               converge = Integer.parseInt(value);
+            }
+            else if (args[a].equals("-pyramid"))
+            {
+               pyramid = Integer.parseInt(value);
+            }
+            else if (args[a].equals("-sleep"))
+            {
+               sleep = Integer.parseInt(value);
+            }
+            else if (args[a].equals("-kernel") && Arrays.asList(CellLocator.FORCE_KERNELS).contains(value))
+            {
+               kernel = value;
+            }
+            else if (args[a].equals("-synthetic"))
+            {
+               check.truth      = new SyntheticImage();
+               check.truth.SEED = Long.parseLong(value);
+            }
+            else if (args[a].equals("-distance"))
+            {
+               check.DISTANCE = Double.parseDouble(value);
+            }
+            else if (args[a].equals("-threads"))
+            {
+               full.THREADS = Integer.parseInt(value);
+            }
+            else
+            {
+               usage();
+            }
+         }
+         if (args.length - a != ((check.truth != null) ? 3 : 4))
+         {
+            usage();
+         }
+         full.ITERATIONS                = Integer.parseInt(args[a]);
+         full.PIXEL_NEIGHBORHOOD_RADIUS = Integer.parseInt(args[a + 1]);
+         full.PIXEL_MOVEMENT            = Float.parseFloat(args[a + 2]);
+      }
+      catch (NumberFormatException e) {
+         usage();
+      }
+      if ((full.ITERATIONS < 1) || (full.PIXEL_NEIGHBORHOOD_RADIUS < 1) || (full.THREADS < 1) ||
+          (converge < 0) || (pyramid < 0) || (sleep < 0) || !(check.DISTANCE >= 0.0))
+      {
+         usage();
+      }
+      check.checked = new CellLocator(full);
+      check.checked.CONVERGENCE_WINDOW = converge;
+      check.checked.PYRAMID_LEVELS     = pyramid;
+      check.checked.SLEEP_ITERATIONS   = sleep;
+      if (kernel != null)
+      {
+         check.checked.FORCE_KERNEL = kernel;
+      }
+      BufferedImage image = null;
+      if (check.truth != null)
+      {
+         check.truth.place();
+         image = check.truth.toImage();
+      }
+      else
+      {
+         try
+         {
+            image = ImageIO.read(new File(args[a + 3]));
+         }
+         catch (IOException e) {
+            System.err.println("An error occurred while trying to open the file:\n" + e.getMessage());
+            System.exit(1);
+         }
+      }
+      if (image == null)
+      {
+         System.err.println("File does not contain a recognized image format");
+         System.exit(1);
+      }
+      if (!check.run(image))
+      {
+         System.err.println("Aborting");
+         System.exit(1);
+      }
+      System.exit(check.report(System.out) ? 0 : 1);
+   }
+
+
+   // Print usage and exit.
+   private static void usage()
+   {
+      System.err.println("Usage: java LocatorCheck [-converge <iterations>] [-pyramid <levels>] [-sleep <iterations>] [-kernel double|float|vector] [-distance <pixels>] [-threads <count>] [-synthetic <seed>] <iterations> <neighborhood radius> <movement> [<image file>]");
+      System.exit(1);
+   }
+}
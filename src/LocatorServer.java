@@ -0,0 +1,365 @@
+// Cell and inclusion locator server.
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * Long-running locator serving loopback HTTP requests, so that images do
+ * not pay for JVM startup, class loading and a cold JIT each time:
+ *
+ * GET /locate?image=<path>[&iterations=<count>][&radius=<pixels>]
+ *     [&movement=<pixels>][&format=csv|jsonl|binary]
+ *
+ * locates the cells and inclusions of an image file and streams back its
+ * coordinates in a result sink format (csv by default). Parameters not
+ * given are those of the server. Requests run on a fixed pool of workers,
+ * and each worker keeps its particle update pool, and particle, cell list,
+ * noise filter and component mask buffers sized for its recent images. The locator is warmed up on a synthetic image at start.
+ * With a result cache, cached coordinates are returned without locating.
+ */
+public class LocatorServer
+{
+   // Default port.
+   public static final int DEFAULT_PORT = 8642;
+
+   // Port, bound on the loopback address.
+   public int PORT = DEFAULT_PORT;
+
+   // Workers.
+   public int WORKERS = Runtime.getRuntime().availableProcessors();
+
+   // Warm-up image size and iterations.
+   public static final int WARM_UP_SIZE       = 256;
+   public static final int WARM_UP_ITERATIONS = 200;
+
+   // Result cache, or null for none.
+   public ResultCache cache = null;
+
+   // Progress output, or null for none.
+   public PrintStream progress = System.out;
+
+   // Result content types, by format.
+   public static final String[] CONTENT_TYPES = { "text/csv", "application/x-ndjson", "application/octet-stream" };
+
+   // Parameters for the image locators.
+   private CellLocator parameters;
+
+   // Server and its workers.
+   private HttpServer      server  = null;
+   private ExecutorService workers = null;
+
+   // Requests received, numbering the metrics MBean of each.
+   private final AtomicLong requests = new AtomicLong();
+
+   // Buffers and pool of each worker, and all of them, to shut down.
+   private final ArrayList<LocatorBuffers>   allBuffers = new ArrayList<LocatorBuffers>();
+   private final ThreadLocal<LocatorBuffers> buffers    = new ThreadLocal<LocatorBuffers>()
+                                                          {
+                                                             @Override
+                                                             protected LocatorBuffers initialValue()
+                                                             {
+                                                                LocatorBuffers buffers = new LocatorBuffers();
+                                                                synchronized (allBuffers)
+                                                                {
+                                                                   allBuffers.add(buffers);
+                                                                }
+                                                                return(buffers);
+                                                             }
+                                                          };
+
+   /**
+    * Constructor.
+    */
+   public LocatorServer(CellLocator parameters, int port, int workers)
+   {
+      this.parameters = parameters;
+      PORT            = port;
+      WORKERS         = workers;
+   }
+
+
+   /**
+    * Warm up and start serving.
+    */
+   public void start() throws IOException
+   {
+      warmUp();
+      server  = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT), 0);
+      workers = Executors.newFixedThreadPool(WORKERS);
+      server.setExecutor(workers);
+      server.createContext("/locate", new HttpHandler()
+                           {
+                              @Override
+                              public void handle(HttpExchange exchange) throws IOException
+                              {
+                                 locate(exchange);
+                              }
+                           }
+                           );
+      server.start();
+      if (progress != null)
+      {
+         progress.println("listening on http://" + server.getAddress().getHostString() + ":" +
+                          server.getAddress().getPort() + "/locate");
+      }
+   }
+
+
+   /**
+    * Stop serving.
+    */
+   public void stop()
+   {
+      if (server != null)
+      {
+         server.stop(0);
+         workers.shutdown();
+         server = null;
+      }
+      synchronized (allBuffers)
+      {
+         for (LocatorBuffers workerBuffers : allBuffers)
+         {
+            workerBuffers.shutdown();
+         }
+         allBuffers.clear();
+      }
+   }
+
+
+   // Locate the cells of a synthetic image, compiling the hot paths.
+   private void warmUp()
+   {
+      SyntheticImage synthetic = new SyntheticImage();
+
+      synthetic.WIDTH      = WARM_UP_SIZE;
+      synthetic.HEIGHT     = WARM_UP_SIZE;
+      synthetic.CELLS      = 40;
+      synthetic.INCLUSIONS = 10;
+      synthetic.place();
+      CellLocator locator = new CellLocator(parameters);
+      locator.progress   = null;
+      locator.ITERATIONS = WARM_UP_ITERATIONS;
+      locator.setImage(synthetic.toImage());
+      locator.initPixels();
+      locator.locateCells();
+      locator.finalizeImage();
+      locator.getCellCoordinates();
+      locator.getInclusionCoordinates();
+   }
+
+
+   // Serve a locate request.
+   private void locate(HttpExchange exchange) throws IOException
+   {
+      try
+      {
+         if (!exchange.getRequestMethod().equals("GET"))
+         {
+            error(exchange, 405, "Use GET");
+            return;
+         }
+         HashMap<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+         String                  image = query.get("image");
+         if (image == null)
+         {
+            error(exchange, 400, "Missing image");
+            return;
+         }
+         String format = query.containsKey("format") ? query.get("format") : "csv";
+         if (!ResultSink.isFormat(format))
+         {
+            error(exchange, 400, "Unknown format " + format);
+            return;
+         }
+         CellLocator locator = new CellLocator(parameters);
+         locator.progress = null;
+         locator.buffers  = buffers.get();
+         try
+         {
+            if (query.containsKey("iterations"))
+            {
+               locator.ITERATIONS = Integer.parseInt(query.get("iterations"));
+            }
+            if (query.containsKey("radius"))
+            {
+               locator.PIXEL_NEIGHBORHOOD_RADIUS = Integer.parseInt(query.get("radius"));
+            }
+            if (query.containsKey("movement"))
+            {
+               locator.PIXEL_MOVEMENT = Float.parseFloat(query.get("movement"));
+            }
+         }
+         catch (NumberFormatException e) {
+            error(exchange, 400, "Invalid number: " + e.getMessage());
+            return;
+         }
+         if ((locator.ITERATIONS < 0) || (locator.PIXEL_NEIGHBORHOOD_RADIUS < 1) || !(locator.PIXEL_MOVEMENT > 0.0))
+         {
+            error(exchange, 400, "Invalid parameters");
+            return;
+         }
+         File file = new File(image);
+         if (!file.isFile())
+         {
+            error(exchange, 404, "No image file " + image);
+            return;
+         }
+         long start = System.nanoTime();
+         locator.metrics.register(image, requests.incrementAndGet());
+         int[] cells;
+         int[] inclusions;
+         try
+         {
+            locator.metrics.begin(Metrics.LOAD);
+            BufferedImage bufferedImage = ImageIO.read(file);
+            locator.metrics.end(Metrics.LOAD);
+            if ((bufferedImage == null) || (bufferedImage.getWidth() <= 0) || (bufferedImage.getHeight() <= 0))
+            {
+               error(exchange, 415, "File does not contain a recognized image format");
+               return;
+            }
+            locator.setImage(bufferedImage);
+            String            key   = null;
+            ResultCache.Entry entry = null;
+            if (cache != null)
+            {
+               key   = locator.getResultKey();
+               entry = cache.get(key, false);
+            }
+            if (entry != null)
+            {
+               cells      = entry.cells;
+               inclusions = entry.inclusions;
+            }
+            else
+            {
+               locator.initPixels();
+               locator.locateCells();
+               locator.finalizeImage();
+               cells      = locator.getCellCoordinates();
+               inclusions = locator.getInclusionCoordinates();
+               if (cache != null)
+               {
+                  cache.put(key, cells, inclusions, null);
+               }
+            }
+         }
+         finally
+         {
+            locator.metrics.unregister();
+         }
+         exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPES[formatIndex(format)]);
+         exchange.sendResponseHeaders(200, 0);
+         ResultSink sink = ResultSink.open(format, Channels.newChannel(exchange.getResponseBody()));
+         try
+         {
+            sink.write(image, cells, inclusions);
+         }
+         finally
+         {
+            sink.close();
+         }
+         if (progress != null)
+         {
+            progress.println("done: " + image + " ms=" + (System.nanoTime() - start) / 1000000L);
+         }
+      }
+      catch (IOException e) {
+         System.err.println("failed: " + exchange.getRequestURI() + ": " + e.getMessage());
+         error(exchange, 500, e.getMessage());
+      }
+      catch (RuntimeException e) {
+         System.err.println("failed: " + exchange.getRequestURI() + ": " + e);
+         error(exchange, 500, e.toString());
+      }
+      finally
+      {
+         exchange.close();
+      }
+   }
+
+
+   // Send an error status and message, unless a response has started.
+   private static void error(HttpExchange exchange, int status, String message)
+   {
+      if (exchange.getResponseCode() != -1)
+      {
+         return;
+      }
+      try
+      {
+         byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+         exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+         exchange.sendResponseHeaders(status, body.length);
+         OutputStream out = exchange.getResponseBody();
+         out.write(body);
+         out.close();
+      }
+      catch (IOException e) {
+         System.err.println("Cannot send error: " + e.getMessage());
+      }
+   }
+
+
+   // Parse a raw query string into decoded names and values.
+   private static HashMap<String, String> parseQuery(String query) throws UnsupportedEncodingException
+   {
+      HashMap<String, String> values = new HashMap<String, String>();
+
+      if (query == null)
+      {
+         return(values);
+      }
+      for (String pair : query.split("&"))
+      {
+         if (pair.isEmpty())
+         {
+            continue;
+         }
+         int i = pair.indexOf('=');
+         if (i == -1)
+         {
+            values.put(URLDecoder.decode(pair, "UTF-8"), "");
+         }
+         else
+         {
+            values.put(URLDecoder.decode(pair.substring(0, i), "UTF-8"),
+                       URLDecoder.decode(pair.substring(i + 1), "UTF-8"));
+         }
+      }
+      return(values);
+   }
+
+
+   // Index of a known format.
+   private static int formatIndex(String format)
+   {
+      for (int i = 0; i < ResultSink.FORMATS.length; i++)
+      {
+         if (ResultSink.FORMATS[i].equals(format))
+         {
+            return(i);
+         }
+      }
+      return(0);
+   }
+}
@@ -0,0 +1,367 @@
+// Locator metrics.
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timing, allocation and particle counts of the phases of a locator run.
+ * A phase is timed by begin and end calls on the thread running it, and
+ * its allocation is sampled over that thread and the worker threads of the
+ * pools made by newPool(), so concurrent locators in a process do not count
+ * each other's allocation. The metrics can be registered as an MBean and
+ * summarized as one JSON line per run.
+ */
+public class Metrics implements MetricsMBean
+{
+   // Phases.
+   public static final int      LOAD         = 0;
+   public static final int      NOISE        = 1;
+   public static final int      PARTICLES    = 2;
+   public static final int      FORCE        = 3;
+   public static final int      COMMIT       = 4;
+   public static final int      UPDATE_IMAGE = 5;
+   public static final int      FINALIZE     = 6;
+   public static final int      COORDINATES  = 7;
+   public static final String[] PHASES       =
+   {
+      "load", "noise", "particles", "force", "commit", "updateImage", "finalize", "coordinates"
+   };
+
+   // Object name domain.
+   public static final String DOMAIN = "AlzheimersInclusions";
+
+   // Phase totals.
+   private long[] calls = new long[PHASES.length];
+   private long[] nanos = new long[PHASES.length];
+   private long[] bytes = new long[PHASES.length];
+
+   // Open phase starts.
+   private long[] startNanos = new long[PHASES.length];
+   private long[] startBytes = new long[PHASES.length];
+
+   // Particle counts.
+   private int  particles;
+   private int  iterations;
+   private long lastMoved;
+   private long totalMoved;
+
+   // Thread allocation counter, or null if unsupported.
+   private static com.sun.management.ThreadMXBean threads = null;
+   static
+   {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean)
+      {
+         threads = (com.sun.management.ThreadMXBean)bean;
+         if (threads.isThreadAllocatedMemorySupported())
+         {
+            threads.setThreadAllocatedMemoryEnabled(true);
+         }
+         else
+         {
+            threads = null;
+         }
+      }
+   }
+
+   // Worker threads of the pools of the run.
+   private long[] poolThreads = new long[0];
+
+   // Registered name.
+   private ObjectName name = null;
+
+   /**
+    * Begin a phase.
+    */
+   public synchronized void begin(int phase)
+   {
+      startBytes[phase] = allocatedBytes();
+      startNanos[phase] = System.nanoTime();
+   }
+
+
+   /**
+    * End a phase.
+    */
+   public synchronized void end(int phase)
+   {
+      nanos[phase] += System.nanoTime() - startNanos[phase];
+      bytes[phase] += Math.max(allocatedBytes() - startBytes[phase], 0L);
+      calls[phase]++;
+   }
+
+
+   /**
+    * Add to the particle count.
+    */
+   public synchronized void addParticles(int count)
+   {
+      particles += count;
+   }
+
+
+   /**
+    * Record an iteration and the particles that moved to another pixel.
+    */
+   public synchronized void iteration(long moved)
+   {
+      iterations++;
+      lastMoved   = moved;
+      totalMoved += moved;
+   }
+
+
+   /**
+    * A fork-join pool whose worker threads are sampled with the thread
+    * running a phase.
+    */
+   public ForkJoinPool newPool(int parallelism)
+   {
+      return(new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory()
+                              {
+                                 @Override
+                                 public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+                                 {
+                                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                                    addPoolThread(thread.getId());
+                                    return(thread);
+                                 }
+                              }, null, false));
+   }
+
+
+   /**
+    * Sample a worker thread of a pool made elsewhere with the thread
+    * running a phase, dropping the pool threads that have ended.
+    */
+   public synchronized void addPoolThread(long id)
+   {
+      int live = 0;
+
+      if (threads != null)
+      {
+         for (long thread : poolThreads)
+         {
+            if (threads.getThreadAllocatedBytes(thread) >= 0L)
+            {
+               poolThreads[live++] = thread;
+            }
+         }
+      }
+      poolThreads       = Arrays.copyOf(poolThreads, live + 1);
+      poolThreads[live] = id;
+   }
+
+
+   // Bytes allocated by the current thread and the live pool threads.
+   private long allocatedBytes()
+   {
+      if (threads == null)
+      {
+         return(0L);
+      }
+      long total = Math.max(threads.getThreadAllocatedBytes(Thread.currentThread().getId()), 0L);
+      for (long thread : poolThreads)
+      {
+         long size = threads.getThreadAllocatedBytes(thread);
+         if (size > 0L)
+         {
+            total += size;
+         }
+      }
+      return(total);
+   }
+
+
+   /**
+    * Register as an MBean with the platform server, named by an image.
+    */
+   public void register(String image)
+   {
+      registerAs(DOMAIN + ":type=Metrics,image=" + ObjectName.quote(image));
+   }
+
+
+   /**
+    * Register as an MBean named by an image and a request number, for runs
+    * that may process an image concurrently.
+    */
+   public void register(String image, long request)
+   {
+      registerAs(DOMAIN + ":type=Metrics,image=" + ObjectName.quote(image) + ",request=" + request);
+   }
+
+
+   // Register under an object name, replacing an MBean of that name.
+   private synchronized void registerAs(String objectName)
+   {
+      try
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         name = new ObjectName(objectName);
+         if (server.isRegistered(name))
+         {
+            server.unregisterMBean(name);
+         }
+         server.registerMBean(this, name);
+      }
+      catch (JMException e) {
+         System.err.println("Cannot register metrics: " + e.getMessage());
+         name = null;
+      }
+   }
+
+
+   /**
+    * Unregister the MBean.
+    */
+   public synchronized void unregister()
+   {
+      if (name != null)
+      {
+         try
+         {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+         }
+         catch (JMException e) {
+         }
+         name = null;
+      }
+   }
+
+
+   @Override
+   public String[] getPhases()
+   {
+      return(PHASES.clone());
+   }
+
+
+   @Override
+   public synchronized long[] getPhaseCalls()
+   {
+      return(calls.clone());
+   }
+
+
+   @Override
+   public synchronized double[] getPhaseMillis()
+   {
+      double[] millis = new double[PHASES.length];
+
+      for (int i = 0; i < PHASES.length; i++)
+      {
+         millis[i] = (double)nanos[i] / 1.0e6;
+      }
+      return(millis);
+   }
+
+
+   @Override
+   public synchronized long[] getPhaseAllocatedBytes()
+   {
+      return(bytes.clone());
+   }
+
+
+   @Override
+   public synchronized int getParticles()
+   {
+      return(particles);
+   }
+
+
+   @Override
+   public synchronized int getIterations()
+   {
+      return(iterations);
+   }
+
+
+   @Override
+   public synchronized long getLastMoved()
+   {
+      return(lastMoved);
+   }
+
+
+   @Override
+   public synchronized long getTotalMoved()
+   {
+      return(totalMoved);
+   }
+
+
+   @Override
+   public synchronized double getAllocationRate()
+   {
+      long totalNanos = 0L;
+      long totalBytes = 0L;
+
+      for (int i = 0; i < PHASES.length; i++)
+      {
+         totalNanos += nanos[i];
+         totalBytes += bytes[i];
+      }
+      if (totalNanos == 0L)
+      {
+         return(0.0);
+      }
+      return((double)totalBytes * 1.0e9 / (double)totalNanos);
+   }
+
+
+   @Override
+   public synchronized String getSummary()
+   {
+      StringBuilder json = new StringBuilder();
+
+      json.append("{\"particles\":").append(particles);
+      json.append(",\"iterations\":").append(iterations);
+      json.append(",\"moved\":").append(totalMoved);
+      json.append(",\"allocationRate\":").append(Math.round(getAllocationRate()));
+      json.append(",\"phases\":{");
+      for (int i = 0; i < PHASES.length; i++)
+      {
+         if (i > 0)
+         {
+            json.append(',');
+         }
+         json.append('"').append(PHASES[i]).append("\":{\"calls\":").append(calls[i]);
+         json.append(",\"ms\":").append(String.format(Locale.ROOT, "%.3f", (double)nanos[i] / 1.0e6));
+         json.append(",\"bytes\":").append(bytes[i]).append('}');
+      }
+      json.append("}}");
+      return(json.toString());
+   }
+
+
+   /**
+    * Summary as a JSON object tagged with an image.
+    */
+   public String getSummary(String image)
+   {
+      String summary = getSummary();
+      String quoted  = image.replace("\\", "\\\\").replace("\"", "\\\"");
+      return("{\"image\":\"" + quoted + "\"," + summary.substring(1));
+   }
+
+
+   @Override
+   public synchronized void reset()
+   {
+      for (int i = 0; i < PHASES.length; i++)
+      {
+         calls[i] = nanos[i] = bytes[i] = 0L;
+      }
+      particles  = iterations = 0;
+      lastMoved  = totalMoved = 0L;
+   }
+}
@@ -0,0 +1,31 @@
+// Locator metrics management interface.
+
+/**
+ * JMX view of the metrics of a locator run.
+ */
+public interface MetricsMBean
+{
+   // Phase names.
+   public String[] getPhases();
+
+   // Calls, total milliseconds and allocated bytes of each phase.
+   public long[] getPhaseCalls();
+   public double[] getPhaseMillis();
+   public long[] getPhaseAllocatedBytes();
+
+   // Particles, iterations run, and particles that moved to another pixel
+   // in the last iteration and in all iterations.
+   public int getParticles();
+   public int getIterations();
+   public long getLastMoved();
+   public long getTotalMoved();
+
+   // Bytes allocated per second over the timed phases.
+   public double getAllocationRate();
+
+   // Summary as a JSON object.
+   public String getSummary();
+
+   // Clear the metrics.
+   public void reset();
+}
@@ -0,0 +1,332 @@
+// Blue pixel noise filter.
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Removes blue pixels with too few blue neighbors, pass by pass.
+ * The blue pixels are a bit mask of 64-pixel words in row order. A pass
+ * counts the 8 neighbors of a whole word at once with bit-sliced adders,
+ * and removes against the mask as it was at the start of the pass, so the
+ * result does not depend on the scan order or the number of threads.
+ * A pass only revisits the words next to a word changed by the last pass.
+ */
+public class NoiseFilter
+{
+   // Rows per parallel band.
+   public static final int ROW_GRAIN = 64;
+
+   // Image dimensions and words per row.
+   public int width;
+   public int height;
+   public int words;
+
+   // Blue pixel mask, bit x % 64 of word y * words + x / 64.
+   public long[] mask;
+
+   // Pixels removed by the last pass.
+   private long[] removed;
+
+   // Words to visit in the next pass.
+   private boolean[] dirty;
+   private boolean[] nextDirty;
+
+   // Band thread pool, or null to run on the calling thread.
+   private ForkJoinPool pool;
+
+   // Band phases.
+   private static final int BUILD  = 0;
+   private static final int REMOVE = 1;
+   private static final int APPLY  = 2;
+
+   // Image pixels, while building.
+   private int[] pixels;
+
+   /**
+    * Constructor. Pixels are indexed y * width + x.
+    */
+   public NoiseFilter(int[] pixels, int width, int height, ForkJoinPool pool)
+   {
+      int size = height * ((width + 63) >>> 6);
+
+      mask      = new long[size];
+      removed   = new long[size];
+      dirty     = new boolean[size];
+      nextDirty = new boolean[size];
+      reset(pixels, width, height, pool);
+   }
+
+
+   /**
+    * Build the mask of other pixels, reusing the buffers, which must hold
+    * height * words words.
+    */
+   public void reset(int[] pixels, int width, int height, ForkJoinPool pool)
+   {
+      this.width  = width;
+      this.height = height;
+      this.pool   = pool;
+      words       = (width + 63) >>> 6;
+      this.pixels = pixels;
+      run(BUILD, 0);
+      this.pixels = null;
+   }
+
+
+   /**
+    * Is pixel blue?
+    */
+   public boolean isBlue(int x, int y)
+   {
+      return(((mask[y * words + (x >>> 6)] >>> (x & 63)) & 1L) != 0);
+   }
+
+
+   /**
+    * Run passes removing blue pixels with fewer than neighbors blue
+    * neighbors. Stops early when a pass removes nothing.
+    * Returns the number of pixels removed.
+    */
+   public int filter(int passes, int neighbors)
+   {
+      int total = 0;
+
+      for (int i = 0; i < passes; i++)
+      {
+         int count = run(REMOVE, neighbors);
+         if (count == 0)
+         {
+            break;
+         }
+         run(APPLY, 0);
+         boolean[] swap = dirty;
+         dirty     = nextDirty;
+         nextDirty = swap;
+         total    += count;
+      }
+      return(total);
+   }
+
+
+   // Run a phase over all rows.
+   private int run(int phase, int neighbors)
+   {
+      BandTask task = new BandTask(phase, neighbors, 0, height);
+
+      if (pool == null)
+      {
+         return(task.compute());
+      }
+      else
+      {
+         return(pool.invoke(task));
+      }
+   }
+
+
+   // Rows from (inclusive) to (exclusive) of a phase.
+   private class BandTask extends RecursiveTask<Integer>
+   {
+      private static final long serialVersionUID = 1L;
+
+      int phase;
+      int neighbors;
+      int from;
+      int to;
+
+      public BandTask(int phase, int neighbors, int from, int to)
+      {
+         this.phase     = phase;
+         this.neighbors = neighbors;
+         this.from      = from;
+         this.to        = to;
+      }
+
+
+      @Override
+      protected Integer compute()
+      {
+         if (to - from <= ROW_GRAIN)
+         {
+            switch (phase)
+            {
+            case BUILD:
+               build(from, to);
+               return(0);
+
+            case REMOVE:
+               return(remove(neighbors, from, to));
+
+            default:
+               apply(from, to);
+               return(0);
+            }
+         }
+         else
+         {
+            int      mid   = (from + to) >>> 1;
+            BandTask upper = new BandTask(phase, neighbors, from, mid);
+            BandTask lower = new BandTask(phase, neighbors, mid, to);
+            upper.fork();
+            int count = lower.compute();
+            return(count + upper.join());
+         }
+      }
+   }
+
+
+   // Build the mask rows from (inclusive) to (exclusive), marking all
+   // words for the first pass.
+   private void build(int from, int to)
+   {
+      for (int y = from; y < to; y++)
+      {
+         int row = y * width;
+         Arrays.fill(mask, y * words, (y + 1) * words, 0L);
+         for (int x = 0; x < width; x++)
+         {
+            if (CellLocator.isBlue(pixels[row + x]))
+            {
+               mask[y * words + (x >>> 6)] |= 1L << (x & 63);
+            }
+         }
+         for (int w = 0; w < words; w++)
+         {
+            dirty[y * words + w] = true;
+         }
+      }
+   }
+
+
+   // Find the pixels of rows from (inclusive) to (exclusive) to remove.
+   // Returns the number found.
+   private int remove(int neighbors, int from, int to)
+   {
+      int count = 0;
+
+      for (int y = from; y < to; y++)
+      {
+         for (int w = 0; w < words; w++)
+         {
+            int  i = y * words + w;
+            long r = 0L;
+            if (dirty[i] && (mask[i] != 0L))
+            {
+               r      = mask[i] & fewer(y, w, neighbors);
+               count += Long.bitCount(r);
+            }
+            removed[i] = r;
+            dirty[i]   = false;
+         }
+      }
+      return(count);
+   }
+
+
+   // Apply the removals to rows from (inclusive) to (exclusive), and mark
+   // the words next to a removal for the next pass.
+   private void apply(int from, int to)
+   {
+      for (int y = from; y < to; y++)
+      {
+         for (int w = 0; w < words; w++)
+         {
+            int     i    = y * words + w;
+            boolean next = false;
+            for (int y2 = Math.max(y - 1, 0); y2 <= Math.min(y + 1, height - 1); y2++)
+            {
+               int j = y2 * words + w;
+               if ((removed[j] != 0L) ||
+                   ((w > 0) && ((removed[j - 1] >>> 63) != 0L)) ||
+                   ((w < words - 1) && ((removed[j + 1] & 1L) != 0L)))
+               {
+                  next = true;
+               }
+            }
+            nextDirty[i] = next;
+         }
+      }
+      for (int y = from; y < to; y++)
+      {
+         for (int w = 0; w < words; w++)
+         {
+            mask[y * words + w] &= ~removed[y * words + w];
+         }
+      }
+   }
+
+
+   // Bits of word w of row y whose pixels have fewer than neighbors
+   // blue neighbors. The 8 neighbor bits are summed into a 4-bit count.
+   private long fewer(int y, int w, int neighbors)
+   {
+      if (neighbors <= 0)
+      {
+         return(0L);
+      }
+      if (neighbors > 8)
+      {
+         return(~0L);
+      }
+      long s0 = 0L, s1 = 0L, s2 = 0L, s3 = 0L;
+      for (int y2 = y - 1; y2 <= y + 1; y2++)
+      {
+         if ((y2 < 0) || (y2 >= height))
+         {
+            continue;
+         }
+         int  i      = y2 * words + w;
+         long center = mask[i];
+         long before = (w > 0) ? mask[i - 1] : 0L;
+         long after  = (w < words - 1) ? mask[i + 1] : 0L;
+         long left   = (center << 1) | (before >>> 63);
+         long right  = (center >>> 1) | (after << 63);
+         for (int k = 0; k < 3; k++)
+         {
+            long v;
+            if (k == 0)
+            {
+               v = left;
+            }
+            else if (k == 1)
+            {
+               v = right;
+            }
+            else if (y2 != y)
+            {
+               v = center;
+            }
+            else
+            {
+               break;
+            }
+            long c1 = s0 & v;
+            s0 ^= v;
+            long c2 = s1 & c1;
+            s1 ^= c1;
+            long c3 = s2 & c2;
+            s2 ^= c2;
+            s3 |= c3;
+         }
+      }
+
+      // Count < neighbors, comparing from the high bit down.
+      long   less  = 0L;
+      long   equal = ~0L;
+      long[] sum   = { s0, s1, s2, s3 };
+      for (int b = 3; b >= 0; b--)
+      {
+         if (((neighbors >>> b) & 1) != 0)
+         {
+            less  |= equal & ~sum[b];
+            equal &= sum[b];
+         }
+         else
+         {
+            equal &= ~sum[b];
+         }
+      }
+      return(less);
+   }
+}
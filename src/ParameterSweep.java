@@ -0,0 +1,235 @@
+// Parameter sweep.
+
+import java.awt.image.BufferedImage;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Locates the cells and inclusions of one image for each setting of a grid
+ * of iterations, neighborhood radii and movements, and tabulates their
+ * counts. The image is decoded and cleaned of noise once. Each radius and
+ * movement is one run to the largest iterations on its own copy of the
+ * particles, sharing the cleaned image, that records the counts at the
+ * other iterations as milestones. The runs go concurrently on a fixed pool
+ * of workers. In pyramid mode, the counts at fewer iterations are those of
+ * the longest run, which scales its coarse levels to the largest iterations.
+ */
+public class ParameterSweep
+{
+   // Workers.
+   public int WORKERS = Runtime.getRuntime().availableProcessors();
+
+   // Parameter grid.
+   public int[]    iterations;
+   public int[]    radii;
+   public double[] movements;
+
+   // Progress output, or null for none.
+   public PrintStream progress = System.out;
+
+   // Parameters for the locators.
+   private CellLocator parameters;
+
+   /**
+    * A setting and its results.
+    */
+   public static class Setting
+   {
+      // Parameters.
+      public int    iterations;
+      public int    radius;
+      public double movement;
+
+      // Results, and the seconds its run took to reach its iterations.
+      public int    cells;
+      public int    inclusions;
+      public double seconds;
+   }
+
+   /**
+    * Constructor.
+    */
+   public ParameterSweep(CellLocator parameters, int workers)
+   {
+      this.parameters = parameters;
+      WORKERS         = workers;
+   }
+
+
+   /**
+    * Parse a comma separated list of ints.
+    */
+   public static int[] parseInts(String list)
+   {
+      String[] values = list.split(",");
+      int[]    result = new int[values.length];
+
+      for (int i = 0; i < values.length; i++)
+      {
+         result[i] = Integer.parseInt(values[i].trim());
+      }
+      return(result);
+   }
+
+
+   /**
+    * Parse a comma separated list of movements, as the command line does.
+    */
+   public static double[] parseMovements(String list)
+   {
+      String[] values = list.split(",");
+      double[] result = new double[values.length];
+
+      for (int i = 0; i < values.length; i++)
+      {
+         result[i] = Float.parseFloat(values[i].trim());
+      }
+      return(result);
+   }
+
+
+   /**
+    * Run the settings on an image, in grid order: radius, then movement,
+    * then iterations. Returns null if a setting fails or is aborted.
+    */
+   public ArrayList<Setting> run(BufferedImage image)
+   {
+      final CellLocator source = new CellLocator(parameters);
+
+      source.progress = null;
+      source.setImage(image);
+      source.initPixels();
+
+      // The settings, and those of each radius and movement.
+      ArrayList<Setting>             settings = new ArrayList<Setting>();
+      ArrayList<ArrayList<Setting> > runs     = new ArrayList<ArrayList<Setting> >();
+      for (int radius : radii)
+      {
+         for (double movement : movements)
+         {
+            ArrayList<Setting> run = new ArrayList<Setting>();
+            for (int i : iterations)
+            {
+               Setting setting = new Setting();
+               setting.iterations = i;
+               setting.radius     = radius;
+               setting.movement   = movement;
+               settings.add(setting);
+               run.add(setting);
+            }
+            runs.add(run);
+         }
+      }
+      ExecutorService            workers = Executors.newFixedThreadPool(WORKERS);
+      ArrayList<Future<Boolean> > results = new ArrayList<Future<Boolean> >();
+      for (final ArrayList<Setting> run : runs)
+      {
+         results.add(workers.submit(new Callable<Boolean>()
+                                    {
+                                       @Override
+                                       public Boolean call()
+                                       {
+                                          return(locate(source, run));
+                                       }
+                                    }
+                                    ));
+      }
+      workers.shutdown();
+      boolean failed = false;
+      for (int i = 0; i < runs.size(); i++)
+      {
+         Setting setting = runs.get(i).get(0);
+         String  name    = "radius=" + setting.radius + " movement=" + (float)setting.movement;
+         try
+         {
+            if (results.get(i).get())
+            {
+               if (progress != null)
+               {
+                  progress.println("done: " + name);
+               }
+            }
+            else
+            {
+               System.err.println("failed: " + name + ": aborted");
+               failed = true;
+            }
+         }
+         catch (ExecutionException e) {
+            System.err.println("failed: " + name + ": " + e.getCause());
+            failed = true;
+         }
+         catch (InterruptedException e) {
+            System.err.println("failed: " + name + ": interrupted");
+            failed = true;
+         }
+      }
+      if (failed)
+      {
+         return(null);
+      }
+      return(settings);
+   }
+
+
+   // Locate the cells of the settings of a radius and movement from the
+   // cleaned source image, in one run to the largest iterations with the
+   // others as milestones. Returns false if aborted.
+   private boolean locate(CellLocator source, final ArrayList<Setting> run)
+   {
+      final long  start      = System.nanoTime();
+      CellLocator locator    = new CellLocator(parameters);
+      int[]       milestones = new int[run.size()];
+
+      for (int i = 0; i < milestones.length; i++)
+      {
+         milestones[i] = run.get(i).iterations;
+      }
+      Arrays.sort(milestones);
+      locator.progress                  = null;
+      locator.ITERATIONS                = milestones[milestones.length - 1];
+      locator.PIXEL_NEIGHBORHOOD_RADIUS = run.get(0).radius;
+      locator.PIXEL_MOVEMENT            = run.get(0).movement;
+      locator.MILESTONES                = milestones;
+      locator.milestoneListener         = new CellLocator.MilestoneListener()
+                                          {
+                                             @Override
+                                             public void milestone(int iterations, int[] cells, int[] inclusions)
+                                             {
+                                                double seconds = (double)(System.nanoTime() - start) / 1.0e9;
+                                                for (Setting setting : run)
+                                                {
+                                                   if (setting.iterations == iterations)
+                                                   {
+                                                      setting.cells      = cells.length / 2;
+                                                      setting.inclusions = inclusions.length / 2;
+                                                      setting.seconds    = seconds;
+                                                   }
+                                                }
+                                             }
+                                          };
+      locator.initPixels(source);
+      return(locator.locateCells());
+   }
+
+
+   /**
+    * Write the settings and their counts as a comma separated table.
+    */
+   public static void writeTable(ArrayList<Setting> settings, PrintStream out)
+   {
+      out.println("iterations,radius,movement,cells,inclusions,seconds");
+      for (Setting setting : settings)
+      {
+         out.println(setting.iterations + "," + setting.radius + "," + (float)setting.movement + "," +
+                     setting.cells + "," + setting.inclusions + "," + String.format(Locale.ROOT, "%.3f", setting.seconds));
+      }
+   }
+}
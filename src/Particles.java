@@ -0,0 +1,100 @@
+// Blue pixel particles.
+
+import java.util.Arrays;
+
+/**
+ * Particles stored as parallel primitive arrays, one entry per blue pixel.
+ * Positions are double-buffered: forces are read from x/y and the moved
+ * positions are written to nextX/nextY.
+ */
+public class Particles
+{
+   // Number of particles.
+   public int count;
+
+   // Current positions.
+   public double[] x;
+   public double[] y;
+
+   // Next positions.
+   public double[] nextX;
+   public double[] nextY;
+
+   // Origin pixel index (y * image width + x).
+   public int[] origin;
+
+   // Origin pixel color.
+   public int[] rgb;
+
+   // Mass of each particle, or null for unit masses.
+   public double[] mass = null;
+
+   /**
+    * Constructor.
+    */
+   public Particles(int capacity)
+   {
+      count  = 0;
+      x      = new double[capacity];
+      y      = new double[capacity];
+      nextX  = new double[capacity];
+      nextY  = new double[capacity];
+      origin = new int[capacity];
+      rgb    = new int[capacity];
+   }
+
+
+   /**
+    * Copy the particles of another set, which must fit.
+    */
+   public void copy(Particles particles)
+   {
+      count = particles.count;
+      System.arraycopy(particles.x, 0, x, 0, count);
+      System.arraycopy(particles.y, 0, y, 0, count);
+      System.arraycopy(particles.nextX, 0, nextX, 0, count);
+      System.arraycopy(particles.nextY, 0, nextY, 0, count);
+      System.arraycopy(particles.origin, 0, origin, 0, count);
+      System.arraycopy(particles.rgb, 0, rgb, 0, count);
+      mass = (particles.mass == null) ? null : Arrays.copyOf(particles.mass, count);
+   }
+
+
+   /**
+    * Remove all particles, keeping the arrays.
+    */
+   public void clear()
+   {
+      count = 0;
+      mass  = null;
+   }
+
+
+   /**
+    * Add a particle centered on pixel (px, py).
+    */
+   public void add(int px, int py, int width, int color)
+   {
+      int i = count;
+
+      x[i]      = (double)px + 0.5f;
+      y[i]      = (double)py + 0.5f;
+      nextX[i]  = x[i];
+      nextY[i]  = y[i];
+      origin[i] = py * width + px;
+      rgb[i]    = color;
+      count++;
+   }
+
+
+   /**
+    * Print a particle.
+    */
+   public void print(int i)
+   {
+      System.out.println("p0: index=" + origin[i]);
+      System.out.println("pt: x=" + x[i] + ", y=" + y[i]);
+      System.out.println("pd: x=" + nextX[i] + ", y=" + nextY[i]);
+      System.out.println("color=" + String.format("0x%08X", rgb[i]));
+   }
+}
@@ -0,0 +1,288 @@
+// Cell and inclusion result cache.
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * On-disk cache of the cell and inclusion coordinates of images, and of
+ * their output images, keyed by CellLocator.getResultKey(). An entry is a
+ * <key>.azr file of coordinates and an optional <key>.png output image.
+ * Files are written to a temporary file and renamed into place, so
+ * processes sharing the directory only see whole files. The modification
+ * time of an entry is its last use: a hit touches it, and a put evicts the
+ * least recently used entries until the cache is within MAX_BYTES.
+ * The coordinates format is big-endian: the magic "AZRC", a version, the
+ * key as a UTF string, the cell and then the inclusion coordinates, each
+ * as a count of ints and the ints, and a CRC32 of all that.
+ */
+public class ResultCache
+{
+   // Format.
+   public static final int MAGIC   = 0x415A5243;
+   public static final int VERSION = 1;
+
+   // Entry file suffixes.
+   public static final String COORDINATES_SUFFIX = ".azr";
+   public static final String IMAGE_SUFFIX       = ".png";
+
+   // Cache directory.
+   public File directory;
+
+   // Size bound, in bytes.
+   public long MAX_BYTES = 1L << 30;
+
+   /**
+    * Cached results of an image.
+    */
+   public static class Entry
+   {
+      // Coordinates, as x, y pairs.
+      public int[] cells;
+      public int[] inclusions;
+
+      // Output image file, or null if not cached.
+      public File image;
+   }
+
+   /**
+    * Constructor. Creates the directory if needed.
+    */
+   public ResultCache(File directory, long maxBytes) throws IOException
+   {
+      this.directory = directory;
+      MAX_BYTES      = maxBytes;
+      if (!directory.isDirectory() && !directory.mkdirs())
+      {
+         throw new IOException("Cannot create cache directory " + directory);
+      }
+   }
+
+
+   /**
+    * Get the results of a key, or null if not cached. If image is true, the
+    * output image must be cached too.
+    */
+   public Entry get(String key, boolean image)
+   {
+      File coordinatesFile = new File(directory, key + COORDINATES_SUFFIX);
+      File imageFile       = new File(directory, key + IMAGE_SUFFIX);
+
+      if (image && !imageFile.isFile())
+      {
+         return(null);
+      }
+      Entry entry = read(coordinatesFile, key);
+      if (entry == null)
+      {
+         return(null);
+      }
+      long now = System.currentTimeMillis();
+      coordinatesFile.setLastModified(now);
+      if (imageFile.isFile())
+      {
+         imageFile.setLastModified(now);
+         entry.image = imageFile;
+      }
+      return(entry);
+   }
+
+
+   /**
+    * Put the results of a key, with a copy of its output image file if not
+    * null, and evict the least recently used entries over the size bound.
+    */
+   public synchronized void put(String key, int[] cells, int[] inclusions, File image) throws IOException
+   {
+      if (image != null)
+      {
+         File temp = File.createTempFile(key, ".tmp", directory);
+         try
+         {
+            Files.copy(image.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp.toPath(), new File(directory, key + IMAGE_SUFFIX).toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         }
+         finally
+         {
+            temp.delete();
+         }
+      }
+      File             temp = File.createTempFile(key, ".tmp", directory);
+      CRC32            crc  = new CRC32();
+      DataOutputStream out  = new DataOutputStream(new CheckedOutputStream(
+                                                      new BufferedOutputStream(new FileOutputStream(temp), 1 << 16), crc));
+      try
+      {
+         try
+         {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            writeCoordinates(out, cells);
+            writeCoordinates(out, inclusions);
+            long checksum = crc.getValue();
+            out.writeLong(checksum);
+         }
+         finally
+         {
+            out.close();
+         }
+         Files.move(temp.toPath(), new File(directory, key + COORDINATES_SUFFIX).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      finally
+      {
+         temp.delete();
+      }
+      evict();
+   }
+
+
+   // Write coordinates.
+   private static void writeCoordinates(DataOutputStream out, int[] coordinates) throws IOException
+   {
+      out.writeInt(coordinates.length);
+      for (int c : coordinates)
+      {
+         out.writeInt(c);
+      }
+   }
+
+
+   // Read the coordinates of a key. Returns null if there are no valid ones.
+   private static Entry read(File file, String key)
+   {
+      if (!file.isFile())
+      {
+         return(null);
+      }
+      try
+      {
+         CRC32           crc = new CRC32();
+         DataInputStream in  = new DataInputStream(new CheckedInputStream(
+                                                      new BufferedInputStream(new FileInputStream(file), 1 << 16), crc));
+         try
+         {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION) || !in.readUTF().equals(key))
+            {
+               return(null);
+            }
+            Entry entry = new Entry();
+            entry.cells      = readCoordinates(in, file);
+            entry.inclusions = readCoordinates(in, file);
+            long checksum = crc.getValue();
+            if ((entry.cells == null) || (entry.inclusions == null) || (in.readLong() != checksum))
+            {
+               return(null);
+            }
+            return(entry);
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch (IOException e) {
+         return(null);
+      }
+   }
+
+
+   // Read coordinates. Returns null if the count is invalid.
+   private static int[] readCoordinates(DataInputStream in, File file) throws IOException
+   {
+      int count = in.readInt();
+
+      if ((count < 0) || (count % 2 != 0) || ((long)count * 4L > file.length()))
+      {
+         return(null);
+      }
+      int[] coordinates = new int[count];
+      for (int i = 0; i < count; i++)
+      {
+         coordinates[i] = in.readInt();
+      }
+      return(coordinates);
+   }
+
+
+   // Evict the least recently used entries until within the size bound.
+   private void evict()
+   {
+      File[] files = directory.listFiles();
+
+      if (files == null)
+      {
+         return;
+      }
+
+      // Size and last use of each entry.
+      final HashMap<String, long[]> entries = new HashMap<String, long[]>();
+      long total = 0L;
+      for (File file : files)
+      {
+         String name = file.getName();
+         String key;
+         if (name.endsWith(COORDINATES_SUFFIX))
+         {
+            key = name.substring(0, name.length() - COORDINATES_SUFFIX.length());
+         }
+         else if (name.endsWith(IMAGE_SUFFIX))
+         {
+            key = name.substring(0, name.length() - IMAGE_SUFFIX.length());
+         }
+         else
+         {
+            continue;
+         }
+         long[] entry = entries.get(key);
+         if (entry == null)
+         {
+            entry = new long[2];
+            entries.put(key, entry);
+         }
+         entry[0] += file.length();
+         entry[1]  = Math.max(entry[1], file.lastModified());
+         total    += file.length();
+      }
+      if (total <= MAX_BYTES)
+      {
+         return;
+      }
+      ArrayList<String> keys = new ArrayList<String>(entries.keySet());
+      Collections.sort(keys, new Comparator<String>()
+                       {
+                          @Override
+                          public int compare(String a, String b)
+                          {
+                             return(Long.compare(entries.get(a)[1], entries.get(b)[1]));
+                          }
+                       }
+                       );
+      for (String key : keys)
+      {
+         if (total <= MAX_BYTES)
+         {
+            break;
+         }
+         new File(directory, key + COORDINATES_SUFFIX).delete();
+         new File(directory, key + IMAGE_SUFFIX).delete();
+         total -= entries.get(key)[0];
+      }
+   }
+}
@@ -0,0 +1,353 @@
+// Cell and inclusion result sink.
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes cell and inclusion coordinates as records tagged with the image
+ * and type, through a large buffer to a channel. Records are encoded
+ * straight into the buffer, and the images of concurrent writers are kept
+ * whole. Formats:
+ * csv:    a header line, then image,type,x,y lines.
+ * jsonl:  {"image":...,"type":...,"x":...,"y":...} lines.
+ * binary: big-endian, the magic "AZR1", then for each image the byte 'I',
+ *         a short UTF-8 length and the image id, and its records as a type
+ *         byte (0 cell, 1 inclusion) and int x and y.
+ */
+public abstract class ResultSink implements Closeable
+{
+   // Formats.
+   public static final String[] FORMATS = { "csv", "jsonl", "binary" };
+
+   // Record types.
+   public static final int      CELL      = 0;
+   public static final int      INCLUSION = 1;
+   public static final String[] TYPES     = { "cell", "inclusion" };
+
+   // Buffer size.
+   public static final int BUFFER_SIZE = 1 << 20;
+
+   // Output.
+   protected WritableByteChannel channel;
+   protected ByteBuffer          buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+   /**
+    * Open a sink of a format writing to a file, or to standard output if
+    * the file is "-".
+    */
+   public static ResultSink open(String format, String file) throws IOException
+   {
+      WritableByteChannel channel;
+
+      if (file.equals("-"))
+      {
+         channel = Channels.newChannel(new FileOutputStream(FileDescriptor.out));
+      }
+      else
+      {
+         channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      }
+      return(open(format, channel));
+   }
+
+
+   /**
+    * Open a sink of a format writing to a channel, which the sink closes.
+    */
+   public static ResultSink open(String format, WritableByteChannel channel) throws IOException
+   {
+      ResultSink sink;
+      if (format.equals("csv"))
+      {
+         sink = new Csv();
+      }
+      else if (format.equals("jsonl"))
+      {
+         sink = new JsonLines();
+      }
+      else if (format.equals("binary"))
+      {
+         sink = new Binary();
+      }
+      else
+      {
+         channel.close();
+         throw new IOException("Unknown result format " + format);
+      }
+      sink.channel = channel;
+      sink.begin();
+      return(sink);
+   }
+
+
+   /**
+    * Is format known?
+    */
+   public static boolean isFormat(String format)
+   {
+      for (String f : FORMATS)
+      {
+         if (f.equals(format))
+         {
+            return(true);
+         }
+      }
+      return(false);
+   }
+
+
+   /**
+    * Write the cell and inclusion coordinates, as x, y pairs, of an image.
+    */
+   public synchronized void write(String image, int[] cells, int[] inclusions) throws IOException
+   {
+      byte[] id = image.getBytes(StandardCharsets.UTF_8);
+
+      writeImage(id);
+      writeRecords(CELL, cells);
+      writeRecords(INCLUSION, inclusions);
+   }
+
+
+   // Write the records of a type.
+   private void writeRecords(int type, int[] coordinates) throws IOException
+   {
+      for (int i = 0; i < coordinates.length; i += 2)
+      {
+         writeRecord(type, coordinates[i], coordinates[i + 1]);
+      }
+   }
+
+
+   /**
+    * Flush the buffer to the channel.
+    */
+   public synchronized void flush() throws IOException
+   {
+      buffer.flip();
+      while (buffer.hasRemaining())
+      {
+         channel.write(buffer);
+      }
+      buffer.clear();
+   }
+
+
+   /**
+    * Flush and close.
+    */
+   @Override
+   public synchronized void close() throws IOException
+   {
+      try
+      {
+         flush();
+      }
+      finally
+      {
+         channel.close();
+      }
+   }
+
+
+   // Write the start of the output.
+   protected abstract void begin() throws IOException;
+
+   // Write the start of an image.
+   protected abstract void writeImage(byte[] id) throws IOException;
+
+   // Write a record.
+   protected abstract void writeRecord(int type, int x, int y) throws IOException;
+
+   // Make room for bytes, flushing if the buffer is too full.
+   protected void reserve(int bytes) throws IOException
+   {
+      if (buffer.remaining() < bytes)
+      {
+         flush();
+         if (buffer.remaining() < bytes)
+         {
+            buffer = ByteBuffer.allocate(bytes);
+         }
+      }
+   }
+
+
+   // Put ASCII text.
+   protected void putText(String text)
+   {
+      for (int i = 0; i < text.length(); i++)
+      {
+         buffer.put((byte)text.charAt(i));
+      }
+   }
+
+
+   // Put an int as ASCII digits.
+   protected void putInt(int value)
+   {
+      if (value < 0)
+      {
+         if (value == Integer.MIN_VALUE)
+         {
+            putText(Integer.toString(value));
+            return;
+         }
+         buffer.put((byte)'-');
+         value = -value;
+      }
+      int digits = 1;
+      for (int v = value; v >= 10; v /= 10)
+      {
+         digits++;
+      }
+      int end = buffer.position() + digits;
+      for (int i = end - 1; i >= end - digits; i--)
+      {
+         buffer.put(i, (byte)('0' + value % 10));
+         value /= 10;
+      }
+      buffer.position(end);
+   }
+
+
+   // Comma separated values.
+   private static class Csv extends ResultSink
+   {
+      // Image field, quoted if needed.
+      byte[] field;
+
+      @Override
+      protected void begin() throws IOException
+      {
+         reserve(64);
+         putText("image,type,x,y\n");
+      }
+
+
+      @Override
+      protected void writeImage(byte[] id) throws IOException
+      {
+         String image = new String(id, StandardCharsets.UTF_8);
+         if ((image.indexOf(',') != -1) || (image.indexOf('"') != -1) || (image.indexOf('\n') != -1))
+         {
+            image = "\"" + image.replace("\"", "\"\"") + "\"";
+         }
+         field = image.getBytes(StandardCharsets.UTF_8);
+      }
+
+
+      @Override
+      protected void writeRecord(int type, int x, int y) throws IOException
+      {
+         reserve(field.length + 40);
+         buffer.put(field);
+         buffer.put((byte)',');
+         putText(TYPES[type]);
+         buffer.put((byte)',');
+         putInt(x);
+         buffer.put((byte)',');
+         putInt(y);
+         buffer.put((byte)'\n');
+      }
+   }
+
+
+   // JSON Lines.
+   private static class JsonLines extends ResultSink
+   {
+      // Record prefix holding the image.
+      byte[] prefix;
+
+      @Override
+      protected void begin()
+      {
+      }
+
+
+      @Override
+      protected void writeImage(byte[] id) throws IOException
+      {
+         String        image = new String(id, StandardCharsets.UTF_8);
+         StringBuilder json  = new StringBuilder("{\"image\":\"");
+         for (int i = 0; i < image.length(); i++)
+         {
+            char c = image.charAt(i);
+            if ((c == '"') || (c == '\\'))
+            {
+               json.append('\\').append(c);
+            }
+            else if (c < ' ')
+            {
+               json.append(String.format("\\u%04x", (int)c));
+            }
+            else
+            {
+               json.append(c);
+            }
+         }
+         json.append("\",\"type\":\"");
+         prefix = json.toString().getBytes(StandardCharsets.UTF_8);
+      }
+
+
+      @Override
+      protected void writeRecord(int type, int x, int y) throws IOException
+      {
+         reserve(prefix.length + 64);
+         buffer.put(prefix);
+         putText(TYPES[type]);
+         putText("\",\"x\":");
+         putInt(x);
+         putText(",\"y\":");
+         putInt(y);
+         putText("}\n");
+      }
+   }
+
+
+   // Compact binary.
+   private static class Binary extends ResultSink
+   {
+      @Override
+      protected void begin() throws IOException
+      {
+         reserve(4);
+         putText("AZR1");
+      }
+
+
+      @Override
+      protected void writeImage(byte[] id) throws IOException
+      {
+         if (id.length > 0xFFFF)
+         {
+            throw new IOException("Image id too long");
+         }
+         reserve(id.length + 3);
+         buffer.put((byte)'I');
+         buffer.putShort((short)id.length);
+         buffer.put(id);
+      }
+
+
+      @Override
+      protected void writeRecord(int type, int x, int y) throws IOException
+      {
+         reserve(9);
+         buffer.put((byte)type);
+         buffer.putInt(x);
+         buffer.putInt(y);
+      }
+   }
+}
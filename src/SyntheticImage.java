@@ -0,0 +1,641 @@
+// Synthetic cell and inclusion image.
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Generates images of blue cell bodies on black, with red inclusions
+ * inside the cells and blue salt noise, along with their ground truth.
+ * Cells have a controlled count, radius range and overlap; the overlap is
+ * the fraction of the sum of two radii by which their disks may intersect.
+ * The image is rendered and written as PNG a row at a time, so its size
+ * is bounded only by the cell and inclusion lists.
+ */
+public class SyntheticImage
+{
+   // Image size.
+   public int WIDTH  = 1024;
+   public int HEIGHT = 1024;
+
+   // Cells.
+   public int    CELLS      = 500;
+   public int    MIN_RADIUS = 4;
+   public int    MAX_RADIUS = 8;
+   public double OVERLAP    = 0.0;
+
+   // Inclusions, 3x3 red squares inside cells.
+   public int INCLUSIONS = 200;
+
+   // Probability of a salt noise pixel.
+   public double NOISE = 0.002;
+
+   // Random seed.
+   public long SEED = 1L;
+
+   // Placement attempts per cell or inclusion.
+   public static final int ATTEMPTS = 100;
+
+   // Cells sorted by top row, and their blue levels.
+   public int   cellCount;
+   public int[] cellX;
+   public int[] cellY;
+   public int[] cellRadius;
+   public int[] cellBlue;
+
+   // Inclusions sorted by top row.
+   public int   inclusionCount;
+   public int[] inclusionX;
+   public int[] inclusionY;
+
+   /**
+    * Place the cells and inclusions.
+    */
+   public void place()
+   {
+      Random random = new Random(SEED);
+
+      // Cells, rejecting those overlapping a placed cell too much.
+      cellX      = new int[CELLS];
+      cellY      = new int[CELLS];
+      cellRadius = new int[CELLS];
+      cellBlue   = new int[CELLS];
+      cellCount  = 0;
+      HashMap<Long, int[]> grid = new HashMap<Long, int[]>();
+      int gridSize = 2 * MAX_RADIUS + 1;
+      for (int i = 0; i < CELLS; i++)
+      {
+         for (int attempt = 0; attempt < ATTEMPTS; attempt++)
+         {
+            int r = MIN_RADIUS + random.nextInt(MAX_RADIUS - MIN_RADIUS + 1);
+            int x = r + random.nextInt(Math.max(WIDTH - 2 * r, 1));
+            int y = r + random.nextInt(Math.max(HEIGHT - 2 * r, 1));
+            if ((OVERLAP < 1.0) && overlaps(grid, gridSize, x, y, r))
+            {
+               continue;
+            }
+            cellX[cellCount]      = x;
+            cellY[cellCount]      = y;
+            cellRadius[cellCount] = r;
+            cellBlue[cellCount]   = 0x80 + random.nextInt(0x80);
+            if (OVERLAP < 1.0)
+            {
+               addToGrid(grid, gridSize, x, y, cellCount);
+            }
+            cellCount++;
+            break;
+         }
+      }
+      grid = null;
+
+      // Inclusions, inside cells and apart from each other.
+      inclusionX     = new int[INCLUSIONS];
+      inclusionY     = new int[INCLUSIONS];
+      inclusionCount = 0;
+      grid           = new HashMap<Long, int[]>();
+      for (int i = 0; (i < INCLUSIONS) && (cellCount > 0); i++)
+      {
+         for (int attempt = 0; attempt < ATTEMPTS; attempt++)
+         {
+            int c = random.nextInt(cellCount);
+            int r = Math.max(cellRadius[c] - 2, 0);
+            int x = cellX[c] - r + random.nextInt(2 * r + 1);
+            int y = cellY[c] - r + random.nextInt(2 * r + 1);
+            if (((x - cellX[c]) * (x - cellX[c]) + (y - cellY[c]) * (y - cellY[c]) > r * r) ||
+                (x < 1) || (y < 1) || (x >= WIDTH - 1) || (y >= HEIGHT - 1) ||
+                nearInclusion(grid, x, y))
+            {
+               continue;
+            }
+            inclusionX[inclusionCount] = x;
+            inclusionY[inclusionCount] = y;
+            addToGrid(grid, 4, x, y, inclusionCount);
+            inclusionCount++;
+            break;
+         }
+      }
+      sortCells();
+      sortInclusions();
+   }
+
+
+   // Grid key of a position.
+   private static long gridKey(int x, int y, int gridSize)
+   {
+      return(((long)(x / gridSize) << 32) | (long)(y / gridSize));
+   }
+
+
+   // Add an index to the grid.
+   private static void addToGrid(HashMap<Long, int[]> grid, int gridSize, int x, int y, int index)
+   {
+      Long  key   = gridKey(x, y, gridSize);
+      int[] items = grid.get(key);
+
+      if (items == null)
+      {
+         items = new int[4];
+      }
+      else if (items[0] + 1 == items.length)
+      {
+         items = Arrays.copyOf(items, items.length * 2);
+      }
+      items[++items[0]] = index;
+      grid.put(key, items);
+   }
+
+
+   // Does a cell overlap a placed cell by more than OVERLAP?
+   private boolean overlaps(HashMap<Long, int[]> grid, int gridSize, int x, int y, int r)
+   {
+      for (int gx = x / gridSize - 1; gx <= x / gridSize + 1; gx++)
+      {
+         for (int gy = y / gridSize - 1; gy <= y / gridSize + 1; gy++)
+         {
+            int[] items = grid.get(((long)gx << 32) | (long)gy);
+            if (items == null)
+            {
+               continue;
+            }
+            for (int k = 1; k <= items[0]; k++)
+            {
+               int    c    = items[k];
+               double dx   = x - cellX[c];
+               double dy   = y - cellY[c];
+               double keep = (double)(r + cellRadius[c]) * (1.0 - OVERLAP);
+               if (dx * dx + dy * dy < keep * keep)
+               {
+                  return(true);
+               }
+            }
+         }
+      }
+      return(false);
+   }
+
+
+   // Would an inclusion touch a placed inclusion?
+   private boolean nearInclusion(HashMap<Long, int[]> grid, int x, int y)
+   {
+      for (int gx = x / 4 - 1; gx <= x / 4 + 1; gx++)
+      {
+         for (int gy = y / 4 - 1; gy <= y / 4 + 1; gy++)
+         {
+            int[] items = grid.get(((long)gx << 32) | (long)gy);
+            if (items == null)
+            {
+               continue;
+            }
+            for (int k = 1; k <= items[0]; k++)
+            {
+               int i = items[k];
+               if ((Math.abs(x - inclusionX[i]) < 4) && (Math.abs(y - inclusionY[i]) < 4))
+               {
+                  return(true);
+               }
+            }
+         }
+      }
+      return(false);
+   }
+
+
+   // Sort the cells by top row.
+   private void sortCells()
+   {
+      long[] keys = new long[cellCount];
+
+      for (int c = 0; c < cellCount; c++)
+      {
+         keys[c] = ((long)(cellY[c] - cellRadius[c]) << 32) | (long)c;
+      }
+      Arrays.sort(keys);
+      int[] x = new int[cellCount];
+      int[] y = new int[cellCount];
+      int[] r = new int[cellCount];
+      int[] b = new int[cellCount];
+      for (int k = 0; k < cellCount; k++)
+      {
+         int c = (int)keys[k];
+         x[k]  = cellX[c];
+         y[k]  = cellY[c];
+         r[k]  = cellRadius[c];
+         b[k]  = cellBlue[c];
+      }
+      cellX      = x;
+      cellY      = y;
+      cellRadius = r;
+      cellBlue   = b;
+   }
+
+
+   // Sort the inclusions by top row.
+   private void sortInclusions()
+   {
+      long[] keys = new long[inclusionCount];
+
+      for (int i = 0; i < inclusionCount; i++)
+      {
+         keys[i] = ((long)inclusionY[i] << 32) | (long)i;
+      }
+      Arrays.sort(keys);
+      int[] x = new int[inclusionCount];
+      int[] y = new int[inclusionCount];
+      for (int k = 0; k < inclusionCount; k++)
+      {
+         int i = (int)keys[k];
+         x[k]  = inclusionX[i];
+         y[k]  = inclusionY[i];
+      }
+      inclusionX = x;
+      inclusionY = y;
+   }
+
+
+   /**
+    * Renders the placed image a row at a time, top to bottom.
+    */
+   public class Rows
+   {
+      // Next row.
+      int y = 0;
+
+      // Cells and inclusions that may cross the next row.
+      int   nextCell       = 0;
+      int[] active         = new int[16];
+      int   activeCount    = 0;
+      int   firstInclusion = 0;
+
+      // Next salt pixel, as y * WIDTH + x.
+      Random salt     = new Random(SEED ^ 0x5DEECE66DL);
+      long   nextSalt = -1L;
+
+      /**
+       * Render the next row into row, as RGB.
+       */
+      public void next(int[] row)
+      {
+         Arrays.fill(row, 0, WIDTH, 0x000000);
+
+         // Cells.
+         while ((nextCell < cellCount) && (cellY[nextCell] - cellRadius[nextCell] <= y))
+         {
+            if (activeCount == active.length)
+            {
+               active = Arrays.copyOf(active, activeCount * 2);
+            }
+            active[activeCount++] = nextCell++;
+         }
+         int kept = 0;
+         for (int k = 0; k < activeCount; k++)
+         {
+            int c  = active[k];
+            int dy = y - cellY[c];
+            int r  = cellRadius[c];
+            if (dy > r)
+            {
+               continue;
+            }
+            active[kept++] = c;
+            int dx = (int)Math.sqrt((double)(r * r - dy * dy));
+            Arrays.fill(row, Math.max(cellX[c] - dx, 0), Math.min(cellX[c] + dx + 1, WIDTH), cellBlue[c]);
+         }
+         activeCount = kept;
+
+         // Salt noise.
+         if (NOISE > 0.0)
+         {
+            long end = (long)(y + 1) * (long)WIDTH;
+            if (nextSalt < 0L)
+            {
+               nextSalt = skipSalt(-1L);
+            }
+            while (nextSalt < end)
+            {
+               row[(int)(nextSalt - (long)y * (long)WIDTH)] = 0x0000FF;
+               nextSalt = skipSalt(nextSalt);
+            }
+         }
+
+         // Inclusions.
+         while ((firstInclusion < inclusionCount) && (inclusionY[firstInclusion] + 1 < y))
+         {
+            firstInclusion++;
+         }
+         for (int i = firstInclusion; (i < inclusionCount) && (inclusionY[i] - 1 <= y); i++)
+         {
+            Arrays.fill(row, inclusionX[i] - 1, inclusionX[i] + 2, 0xFF0000);
+         }
+         y++;
+      }
+
+
+      // Next salt pixel after a pixel, with geometric gaps.
+      private long skipSalt(long pixel)
+      {
+         if (NOISE >= 1.0)
+         {
+            return(pixel + 1L);
+         }
+         double u = 1.0 - salt.nextDouble();
+         return(pixel + 1L + (long)(Math.log(u) / Math.log(1.0 - NOISE)));
+      }
+   }
+
+
+   /**
+    * Render the image in memory.
+    */
+   public BufferedImage toImage()
+   {
+      BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+      int[]         data  = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+      Rows          rows  = new Rows();
+      int[]         row   = new int[WIDTH];
+
+      for (int y = 0; y < HEIGHT; y++)
+      {
+         rows.next(row);
+         System.arraycopy(row, 0, data, y * WIDTH, WIDTH);
+      }
+      return(image);
+   }
+
+
+   /**
+    * Write the image as an RGB PNG, a row at a time.
+    */
+   public void write(File file) throws IOException
+   {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+      try
+      {
+         out.write(new byte[] { (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' });
+         byte[] header = new byte[13];
+         putInt(header, 0, WIDTH);
+         putInt(header, 4, HEIGHT);
+         header[8] = 8;
+         header[9] = 2;
+         writeChunk(out, "IHDR", header, header.length);
+         Deflater             deflater = new Deflater(Deflater.BEST_SPEED);
+         DeflaterOutputStream idat     = new DeflaterOutputStream(new ChunkStream(out, "IDAT"), deflater, 1 << 16);
+         Rows                 rows     = new Rows();
+         int[]                row      = new int[WIDTH];
+         byte[]               bytes    = new byte[3 * WIDTH + 1];
+         for (int y = 0; y < HEIGHT; y++)
+         {
+            rows.next(row);
+            for (int x = 0; x < WIDTH; x++)
+            {
+               bytes[3 * x + 1] = (byte)(row[x] >> 16);
+               bytes[3 * x + 2] = (byte)(row[x] >> 8);
+               bytes[3 * x + 3] = (byte)row[x];
+            }
+            idat.write(bytes);
+         }
+         idat.close();
+         deflater.end();
+         writeChunk(out, "IEND", new byte[0], 0);
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+
+   // Put a big-endian int.
+   private static void putInt(byte[] bytes, int offset, int value)
+   {
+      bytes[offset]     = (byte)(value >>> 24);
+      bytes[offset + 1] = (byte)(value >>> 16);
+      bytes[offset + 2] = (byte)(value >>> 8);
+      bytes[offset + 3] = (byte)value;
+   }
+
+
+   // Write a PNG chunk.
+   private static void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException
+   {
+      byte[] name = type.getBytes("US-ASCII");
+      CRC32  crc  = new CRC32();
+
+      crc.update(name);
+      crc.update(data, 0, length);
+      out.writeInt(length);
+      out.write(name);
+      out.write(data, 0, length);
+      out.writeInt((int)crc.getValue());
+   }
+
+
+   // Stream writing PNG chunks of a type as its buffer fills.
+   private static class ChunkStream extends OutputStream
+   {
+      DataOutputStream out;
+      String           type;
+      byte[]           buffer = new byte[1 << 16];
+      int              count  = 0;
+
+      ChunkStream(DataOutputStream out, String type)
+      {
+         this.out  = out;
+         this.type = type;
+      }
+
+
+      @Override
+      public void write(int b) throws IOException
+      {
+         if (count == buffer.length)
+         {
+            flush();
+         }
+         buffer[count++] = (byte)b;
+      }
+
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException
+      {
+         while (len > 0)
+         {
+            if (count == buffer.length)
+            {
+               flush();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off   += n;
+            len   -= n;
+         }
+      }
+
+
+      @Override
+      public void flush() throws IOException
+      {
+         if (count > 0)
+         {
+            writeChunk(out, type, buffer, count);
+            count = 0;
+         }
+      }
+
+
+      @Override
+      public void close() throws IOException
+      {
+         flush();
+      }
+   }
+
+
+   /**
+    * Cell centers, as x, y pairs.
+    */
+   public int[] getCellCoordinates()
+   {
+      int[] coordinates = new int[cellCount * 2];
+
+      for (int c = 0; c < cellCount; c++)
+      {
+         coordinates[2 * c]     = cellX[c];
+         coordinates[2 * c + 1] = cellY[c];
+      }
+      return(coordinates);
+   }
+
+
+   /**
+    * Inclusion centers, as x, y pairs.
+    */
+   public int[] getInclusionCoordinates()
+   {
+      int[] coordinates = new int[inclusionCount * 2];
+
+      for (int i = 0; i < inclusionCount; i++)
+      {
+         coordinates[2 * i]     = inclusionX[i];
+         coordinates[2 * i + 1] = inclusionY[i];
+      }
+      return(coordinates);
+   }
+
+
+   /**
+    * Generate an image and its ground truth.
+    */
+   public static void main(String[] args)
+   {
+      SyntheticImage synthetic = new SyntheticImage();
+      String         format    = "csv";
+      int            a         = 0;
+
+      try
+      {
+         for ( ; a < args.length - 1 && args[a].startsWith("-"); a += 2)
+         {
+            String value = args[a + 1];
+            if (args[a].equals("-size"))
+            {
+               String[] size = value.split("x");
+               synthetic.WIDTH  = Integer.parseInt(size[0]);
+               synthetic.HEIGHT = Integer.parseInt(size[size.length - 1]);
+            }
+            else if (args[a].equals("-cells"))
+            {
+               synthetic.CELLS = Integer.parseInt(value);
+            }
+            else if (args[a].equals("-radius"))
+            {
+               String[] radius = value.split(":");
+               synthetic.MIN_RADIUS = Integer.parseInt(radius[0]);
+               synthetic.MAX_RADIUS = Integer.parseInt(radius[radius.length - 1]);
+            }
+            else if (args[a].equals("-overlap"))
+            {
+               synthetic.OVERLAP = Double.parseDouble(value);
+            }
+            else if (args[a].equals("-inclusions"))
+            {
+               synthetic.INCLUSIONS = Integer.parseInt(value);
+            }
+            else if (args[a].equals("-noise"))
+            {
+               synthetic.NOISE = Double.parseDouble(value);
+            }
+            else if (args[a].equals("-seed"))
+            {
+               synthetic.SEED = Long.parseLong(value);
+            }
+            else if (args[a].equals("-format") && ResultSink.isFormat(value))
+            {
+               format = value;
+            }
+            else
+            {
+               usage();
+            }
+         }
+      }
+      catch (NumberFormatException e) {
+         usage();
+      }
+      if ((a != args.length - 1) || (synthetic.WIDTH < 1) || (synthetic.HEIGHT < 1) ||
+          (synthetic.MIN_RADIUS < 1) || (synthetic.MAX_RADIUS < synthetic.MIN_RADIUS) ||
+          (synthetic.NOISE < 0.0) || (synthetic.OVERLAP < 0.0))
+      {
+         usage();
+      }
+      File   file = new File(args[a]);
+      String name = file.getName();
+      int    i    = name.lastIndexOf('.');
+      if (i != -1)
+      {
+         name = name.substring(0, i);
+      }
+      String truth = new File(file.getAbsoluteFile().getParentFile(), name + "_truth." + format).getPath();
+      try
+      {
+         synthetic.place();
+         synthetic.write(file);
+         ResultSink sink = ResultSink.open(format, truth);
+         try
+         {
+            sink.write(file.getName(), synthetic.getCellCoordinates(), synthetic.getInclusionCoordinates());
+         }
+         finally
+         {
+            sink.close();
+         }
+      }
+      catch (IOException e) {
+         System.err.println("An error occurred while trying to write the image:\n" + e.getMessage());
+         System.exit(1);
+      }
+      System.out.println("cells=" + synthetic.cellCount + " inclusions=" + synthetic.inclusionCount);
+      System.out.println("truth=" + truth);
+   }
+
+
+   // Print usage and exit.
+   private static void usage()
+   {
+      System.err.println("Usage: java SyntheticImage [-size <width>x<height>] [-cells <count>] [-radius <min>:<max>] [-overlap <fraction>] [-inclusions <count>] [-noise <probability>] [-seed <seed>] [-format csv|jsonl|binary] <png file>");
+      System.exit(1);
+   }
+}
@@ -0,0 +1,216 @@
+// Tiled cell and inclusion locator.
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Locates cells and inclusions in images too large to decode at once.
+ * The image is decoded a row of tiles at a time with
+ * ImageReadParam.setSourceRegion, so that sequential formats such as PNG
+ * decode each band once, and each tile is extended by a halo covering the
+ * particle drift, the neighborhood radius and the noise removal passes.
+ * A tile keeps the coordinates in its own (haloless) area, so memory is
+ * bounded by a band of the image width and the tile size.
+ */
+public class TiledLocator
+{
+   // Tile size and halo. A halo of -1 uses PIXEL_NEIGHBORHOOD_RADIUS plus
+   // the maximum drift (ITERATIONS * PIXEL_MOVEMENT) plus NOISE_PASSES.
+   public int TILE_SIZE = 2048;
+   public int TILE_HALO = -1;
+
+   // Parameters for the tile locators.
+   private CellLocator parameters;
+
+   // Coordinates, as x, y pairs.
+   public int[] cellCoordinates      = new int[0];
+   public int[] inclusionCoordinates = new int[0];
+
+   /**
+    * Constructor.
+    */
+   public TiledLocator(CellLocator parameters, int tileSize)
+   {
+      this.parameters = parameters;
+      TILE_SIZE       = tileSize;
+   }
+
+
+   /**
+    * Halo in pixels.
+    */
+   public int getHalo()
+   {
+      if (TILE_HALO >= 0)
+      {
+         return(TILE_HALO);
+      }
+      int drift = (int)Math.ceil((double)parameters.ITERATIONS * parameters.PIXEL_MOVEMENT);
+      return(parameters.PIXEL_NEIGHBORHOOD_RADIUS + drift + parameters.NOISE_PASSES);
+   }
+
+
+   /**
+    * Locate the cells and inclusions in an image file.
+    * Returns false if the run is aborted.
+    */
+   public boolean locate(File file) throws IOException
+   {
+      ImageInputStream stream = ImageIO.createImageInputStream(file);
+
+      if (stream == null)
+      {
+         throw new IOException("Cannot open " + file);
+      }
+      try
+      {
+         Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+         if (!readers.hasNext())
+         {
+            throw new IOException("File does not contain a recognized image format");
+         }
+         ImageReader reader = readers.next();
+         try
+         {
+            reader.setInput(stream);
+            return(locate(reader));
+         }
+         finally
+         {
+            reader.dispose();
+         }
+      }
+      finally
+      {
+         stream.close();
+      }
+   }
+
+
+   // Locate tile by tile.
+   private boolean locate(ImageReader reader) throws IOException
+   {
+      int      width      = reader.getWidth(0);
+      int      height     = reader.getHeight(0);
+      int      halo       = getHalo();
+      IntPairs cells      = new IntPairs();
+      IntPairs inclusions = new IntPairs();
+
+      for (int ty = 0; ty < height; ty += TILE_SIZE)
+      {
+         int            y0    = Math.max(ty - halo, 0);
+         int            y1    = Math.min(ty + TILE_SIZE + halo, height);
+         ImageReadParam param = reader.getDefaultReadParam();
+         param.setSourceRegion(new Rectangle(0, y0, width, y1 - y0));
+         parameters.metrics.begin(Metrics.LOAD);
+         BufferedImage band = reader.read(0, param);
+         parameters.metrics.end(Metrics.LOAD);
+         for (int tx = 0; tx < width; tx += TILE_SIZE)
+         {
+            Rectangle core = new Rectangle(tx, ty, Math.min(TILE_SIZE, width - tx), Math.min(TILE_SIZE, height - ty));
+            int       x0   = Math.max(tx - halo, 0);
+            int       x1   = Math.min(tx + TILE_SIZE + halo, width);
+            if (parameters.progress != null)
+            {
+               parameters.progress.println("tile=" + tx + "," + ty + " " + core.width + "x" + core.height);
+            }
+            CellLocator locator = new CellLocator(parameters);
+            locator.metrics = parameters.metrics;
+            locator.setImage(band.getSubimage(x0, 0, x1 - x0, y1 - y0));
+            locator.initPixels();
+            if (!locator.locateCells())
+            {
+               return(false);
+            }
+            locator.finalizeImage();
+            cells.addInside(locator.getCellCoordinates(), x0, y0, core);
+            inclusions.addInside(locator.getInclusionCoordinates(), x0, y0, core);
+         }
+      }
+      cellCoordinates      = cells.toMarkers();
+      inclusionCoordinates = inclusions.toMarkers();
+      return(true);
+   }
+
+
+   // Coordinate pairs packed as longs.
+   private static class IntPairs
+   {
+      long[] pairs = new long[64];
+      int    count = 0;
+
+      // Add the tile coordinates that fall in the core, offset to the image.
+      void addInside(int[] coordinates, int dx, int dy, Rectangle core)
+      {
+         for (int i = 0; i < coordinates.length; i += 2)
+         {
+            int x = coordinates[i] + dx;
+            int y = coordinates[i + 1] + dy;
+            if (core.contains(x, y))
+            {
+               add(((long)x << 32) | (long)y);
+            }
+         }
+      }
+
+
+      // Add a pair.
+      void add(long pair)
+      {
+         if (count == pairs.length)
+         {
+            pairs = Arrays.copyOf(pairs, count * 2);
+         }
+         pairs[count++] = pair;
+      }
+
+
+      // Sort in column order and drop markers next to a kept marker, so
+      // that a component on a tile seam whose centroids round differently
+      // in the two tiles is reported once.
+      int[] toMarkers()
+      {
+         long[] sorted = Arrays.copyOf(pairs, count);
+         Arrays.sort(sorted);
+         HashSet<Long> kept    = new HashSet<Long>();
+         IntPairs      markers = new IntPairs();
+         for (long pair : sorted)
+         {
+            int     x    = (int)(pair >> 32);
+            int     y    = (int)pair;
+            boolean near = false;
+            for (int x2 = x - 1; x2 <= x + 1; x2++)
+            {
+               for (int y2 = y - 1; y2 <= y + 1; y2++)
+               {
+                  if ((x2 >= 0) && (y2 >= 0) && kept.contains(((long)x2 << 32) | (long)y2))
+                  {
+                     near = true;
+                  }
+               }
+            }
+            if (!near)
+            {
+               kept.add(pair);
+               markers.add(pair);
+            }
+         }
+         int[] coordinates = new int[markers.count * 2];
+         for (int i = 0; i < markers.count; i++)
+         {
+            coordinates[2 * i]     = (int)(markers.pairs[i] >> 32);
+            coordinates[2 * i + 1] = (int)markers.pairs[i];
+         }
+         return(coordinates);
+      }
+   }
+}
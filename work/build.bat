@@ -1,3 +0,0 @@
-javac -classpath ../lib/vecmath-1.5.2.jar -d . ../src/*.java
-jar cvfm ../bin/AlzheimersInclusions.jar AlzheimersInclusions.mf *.class
-del *.class
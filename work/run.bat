@@ -1 +1 @@
-java -jar ../bin/AlzheimersInclusions.jar %*
+java %JAVA_OPTS% -jar ../target/AlzheimersInclusions.jar %*